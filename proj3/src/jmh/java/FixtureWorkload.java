@@ -0,0 +1,161 @@
+import bearmaps.jmh.Workload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The Workload the JMH benchmarks run, driven by the path_params.txt and raster_params.txt
+ * fixtures, which are read from the working directory like the tests read them, or by
+ * random viewports over the root tile.
+ */
+public class FixtureWorkload implements Workload {
+    private static final String PATH_PARAMS_FILE = "path_params.txt";
+    private static final String RASTER_PARAMS_FILE = "raster_params.txt";
+    /** Seeds the random viewports, so every run times the same ones. */
+    private static final long VIEWPORT_SEED = 11;
+
+    private GraphDB graph;
+    private Router.Strategy strategy;
+    /** Each route's {start_lon, start_lat, end_lon, end_lat}. */
+    private List<double[]> routes = new ArrayList<>();
+    /** The shortest path of each route. */
+    private List<List<Long>> paths = new ArrayList<>();
+    private Rasterer rasterer;
+    private List<Map<String, Double>> rasters = new ArrayList<>();
+    private final ByteArrayOutputStream response = new ByteArrayOutputStream();
+
+    @Override
+    public Object loadGraph(String osmPath) {
+        return new GraphDB(osmPath);
+    }
+
+    @Override
+    public void setUpRouting(String osmPath, String strategyName) throws IOException {
+        graph = new GraphDB(osmPath);
+        strategy = Router.Strategy.valueOf(strategyName);
+        List<String> lines = Files.readAllLines(Paths.get(PATH_PARAMS_FILE),
+                Charset.defaultCharset());
+        for (int i = 2; i + 3 < lines.size(); i += 4) {
+            routes.add(new double[]{Double.parseDouble(lines.get(i)),
+                Double.parseDouble(lines.get(i + 1)), Double.parseDouble(lines.get(i + 2)),
+                Double.parseDouble(lines.get(i + 3))});
+        }
+        /* This also builds any preprocessed data the strategy needs. */
+        for (int i = 0; i < routes.size(); i++) {
+            paths.add(findPath(i));
+        }
+    }
+
+    @Override
+    public void setUpRastering() throws IOException {
+        startRasterServer();
+        List<String> lines = Files.readAllLines(Paths.get(RASTER_PARAMS_FILE),
+                Charset.defaultCharset());
+        for (int i = 2; i + 5 < lines.size(); i += 6) {
+            Map<String, Double> params = new HashMap<>();
+            params.put("ullon", Double.parseDouble(lines.get(i)));
+            params.put("ullat", Double.parseDouble(lines.get(i + 1)));
+            params.put("lrlon", Double.parseDouble(lines.get(i + 2)));
+            params.put("lrlat", Double.parseDouble(lines.get(i + 3)));
+            params.put("w", Double.parseDouble(lines.get(i + 4)));
+            params.put("h", Double.parseDouble(lines.get(i + 5)));
+            rasters.add(params);
+        }
+    }
+
+    @Override
+    public void setUpRastering(int width, int height, int depth, int count) {
+        startRasterServer();
+        /* The longitude per pixel of the tiles at depth, which makes Rasterer pick depth. */
+        double lonDPP = (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON)
+                / (MapServer.TILE_SIZE * Math.pow(2, depth));
+        double latDPP = (MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT)
+                / (MapServer.TILE_SIZE * Math.pow(2, depth));
+        Random random = new Random(VIEWPORT_SEED);
+        for (int i = 0; i < count; i++) {
+            double ullon = MapServer.ROOT_ULLON + random.nextDouble()
+                    * (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON - width * lonDPP);
+            double ullat = MapServer.ROOT_ULLAT - random.nextDouble()
+                    * (MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT - height * latDPP);
+            Map<String, Double> params = new HashMap<>();
+            params.put("ullon", ullon);
+            params.put("ullat", ullat);
+            params.put("lrlon", ullon + width * lonDPP);
+            params.put("lrlat", ullat - height * latDPP);
+            params.put("w", (double) width);
+            params.put("h", (double) height);
+            rasters.add(params);
+        }
+    }
+
+    /** Starts MapServer with its raster cache off. */
+    private void startRasterServer() {
+        System.setProperty("bearmaps.rasterCacheMB", "0");
+        MapServer.initialize();
+        rasterer = new Rasterer();
+    }
+
+    @Override
+    public int numRoutes() {
+        return routes.size();
+    }
+
+    @Override
+    public int numRasters() {
+        return rasters.size();
+    }
+
+    @Override
+    public long closest(int route) {
+        double[] r = routes.get(route);
+        return graph.closest(r[0], r[1]) + graph.closest(r[2], r[3]);
+    }
+
+    @Override
+    public long closestByScan(int route) {
+        double[] r = routes.get(route);
+        return graph.closestByScan(r[0], r[1]) + graph.closestByScan(r[2], r[3]);
+    }
+
+    @Override
+    public Object shortestPath(int route) {
+        return findPath(route);
+    }
+
+    private List<Long> findPath(int route) {
+        double[] r = routes.get(route);
+        return Router.shortestPath(graph, r[0], r[1], r[2], r[3], strategy);
+    }
+
+    @Override
+    public Object routeDirections(int route) {
+        return Router.routeDirections(graph, paths.get(route));
+    }
+
+    @Override
+    public Object getMapRaster(int raster) {
+        return rasterer.getMapRaster(rasters.get(raster));
+    }
+
+    @Override
+    public Object raster(int raster) {
+        Map<String, Double> params = rasters.get(raster);
+        return rasterer.raster(params.get("ullon"), params.get("ullat"), params.get("lrlon"),
+                params.get("lrlat"), params.get("w"), params.get("h"));
+    }
+
+    @Override
+    public int rasterImage(int raster) throws IOException {
+        response.reset();
+        MapServer.raster(rasters.get(raster), RouteStore.Route.EMPTY, response);
+        return response.size();
+    }
+}
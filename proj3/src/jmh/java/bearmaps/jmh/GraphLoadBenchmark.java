@@ -0,0 +1,81 @@
+package bearmaps.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times building the GraphDB at server startup, from the OSM file and from its snapshot.
+ * The OSM file is copied to a temporary directory so that the snapshot next to the real
+ * one is left alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class GraphLoadBenchmark {
+    @Param("../library-sp18/data/berkeley-2018.osm.xml")
+    public String osm;
+
+    /** "xml" parses the OSM file and saves a snapshot; "snapshot" loads the snapshot. */
+    @Param({"xml", "snapshot"})
+    public String source;
+
+    private Workload workload;
+    private File dir;
+    private File copy;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workload = Workload.create();
+        dir = Files.createTempDirectory("bearmaps-jmh").toFile();
+        copy = new File(dir, new File(osm).getName());
+        Files.copy(new File(osm).toPath(), copy.toPath());
+        /* Saves the snapshot. */
+        workload.loadGraph(copy.getPath());
+    }
+
+    /** Deletes the snapshot before each load from xml, so that the XML is parsed. */
+    @Setup(Level.Invocation)
+    public void deleteSnapshot() {
+        if (source.equals("xml")) {
+            deleteAllBut(copy);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        deleteAllBut(null);
+        dir.delete();
+    }
+
+    private void deleteAllBut(File keep) {
+        for (File f : dir.listFiles()) {
+            if (!f.equals(keep)) {
+                f.delete();
+            }
+        }
+    }
+
+    @Benchmark
+    public Object loadGraph() {
+        return workload.loadGraph(copy.getPath());
+    }
+}
@@ -0,0 +1,62 @@
+package bearmaps.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times GraphDB.closest and Router.routeDirections on the routes of path_params.txt, one
+ * route per operation, in turn. closest snaps both ends of the route with the spatial
+ * index, and closestByScan snaps them by checking every vertex, for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GraphQueryBenchmark {
+    @Param("../library-sp18/data/berkeley-2018.osm.xml")
+    public String osm;
+
+    private Workload workload;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        workload = Workload.create();
+        workload.setUpRouting(osm, "ASTAR");
+    }
+
+    private int nextRoute() {
+        int route = next;
+        next = route + 1 == workload.numRoutes() ? 0 : route + 1;
+        return route;
+    }
+
+    @Benchmark
+    public long closest() {
+        return workload.closest(nextRoute());
+    }
+
+    @Benchmark
+    public long closestByScan() {
+        return workload.closestByScan(nextRoute());
+    }
+
+    @Benchmark
+    public Object routeDirections() {
+        return workload.routeDirections(nextRoute());
+    }
+}
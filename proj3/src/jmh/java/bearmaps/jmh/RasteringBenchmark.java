@@ -0,0 +1,85 @@
+package bearmaps.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times Rasterer.getMapRaster and Rasterer.raster, and the whole /raster response with its
+ * image, one request per operation, in turn. The requests are those of raster_params.txt
+ * for the viewport "fixtures", and otherwise small (512x512), medium (1280x800) or large
+ * (3840x2160) viewports at random positions, drawn from depth 6 tiles. MapServer runs
+ * with its raster cache off and its tile cache on, so the image is drawn and encoded every
+ * time from decoded tiles. The -Dbearmaps.* properties of MapServer can be passed to the
+ * forked JVM with -jvmArgsAppend.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RasteringBenchmark {
+    /** The depth of the tiles the random viewports are drawn from. */
+    private static final int VIEWPORT_DEPTH = 6;
+    private static final int NUM_VIEWPORTS = 20;
+
+    @Param({"fixtures", "small", "medium", "large"})
+    public String viewport;
+
+    private Workload workload;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        workload = Workload.create();
+        switch (viewport) {
+            case "fixtures":
+                workload.setUpRastering();
+                break;
+            case "small":
+                workload.setUpRastering(512, 512, VIEWPORT_DEPTH, NUM_VIEWPORTS);
+                break;
+            case "medium":
+                workload.setUpRastering(1280, 800, VIEWPORT_DEPTH, NUM_VIEWPORTS);
+                break;
+            case "large":
+                workload.setUpRastering(3840, 2160, VIEWPORT_DEPTH, NUM_VIEWPORTS);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown viewport " + viewport);
+        }
+    }
+
+    private int nextRaster() {
+        int raster = next;
+        next = raster + 1 == workload.numRasters() ? 0 : raster + 1;
+        return raster;
+    }
+
+    @Benchmark
+    public Object getMapRaster() {
+        return workload.getMapRaster(nextRaster());
+    }
+
+    @Benchmark
+    public Object raster() {
+        return workload.raster(nextRaster());
+    }
+
+    @Benchmark
+    public int rasterImage() throws IOException {
+        return workload.rasterImage(nextRaster());
+    }
+}
@@ -0,0 +1,50 @@
+package bearmaps.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times Router.shortestPath with each strategy on the routes of path_params.txt, one route
+ * per operation, in turn. Landmarks and the contraction hierarchy are built before timing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShortestPathBenchmark {
+    @Param("../library-sp18/data/berkeley-2018.osm.xml")
+    public String osm;
+
+    @Param({"ASTAR", "BIDIRECTIONAL_ASTAR", "ALT", "CONTRACTION_HIERARCHY"})
+    public String strategy;
+
+    private Workload workload;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        workload = Workload.create();
+        workload.setUpRouting(osm, strategy);
+    }
+
+    @Benchmark
+    public Object shortestPath() {
+        int route = next;
+        next = route + 1 == workload.numRoutes() ? 0 : route + 1;
+        return workload.shortestPath(route);
+    }
+}
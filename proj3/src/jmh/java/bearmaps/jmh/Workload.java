@@ -0,0 +1,122 @@
+package bearmaps.jmh;
+
+import java.io.IOException;
+
+/**
+ * The proj3 operations the benchmarks time. JMH only accepts benchmarks in a named package,
+ * and a named package cannot refer to the classes of the default package, so the
+ * benchmarks call GraphDB, Router, Rasterer and MapServer through this interface. Its one
+ * implementation is FixtureWorkload, in the default package, which create() loads by name.
+ *
+ * Routes are numbered in the order of path_params.txt, and rasters in the order of
+ * raster_params.txt or of the viewports generated by setUpRastering(int, int, int, int).
+ */
+public interface Workload {
+    /** The name of the implementing class, in the default package. */
+    String IMPLEMENTATION = "FixtureWorkload";
+
+    /**
+     * Returns a new workload with nothing loaded.
+     * @return The workload.
+     */
+    static Workload create() {
+        try {
+            return (Workload) Class.forName(IMPLEMENTATION).getDeclaredConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create " + IMPLEMENTATION, e);
+        }
+    }
+
+    /**
+     * Builds a GraphDB, exactly as the server does at startup.
+     * @param osmPath The OSM file.
+     * @return The graph.
+     */
+    Object loadGraph(String osmPath);
+
+    /**
+     * Loads the graph and the routes of path_params.txt, and prepares the graph for the
+     * routing strategy by routing every fixture once.
+     * @param osmPath The OSM file.
+     * @param strategy The name of a Router.Strategy.
+     * @throws IOException If the fixture file cannot be read.
+     */
+    void setUpRouting(String osmPath, String strategy) throws IOException;
+
+    /**
+     * Starts MapServer, with its raster cache off so that every request draws and encodes
+     * its image, and loads the rasters of raster_params.txt.
+     * @throws IOException If the fixture file cannot be read.
+     */
+    void setUpRastering() throws IOException;
+
+    /**
+     * Starts MapServer as setUpRastering() does, but instead of the fixtures loads viewports
+     * of one size at random positions in the map, scaled so that Rasterer picks the given
+     * depth of tiles.
+     * @param width The width of each viewport, in pixels.
+     * @param height The height of each viewport, in pixels.
+     * @param depth The depth of the tiles.
+     * @param count The number of viewports.
+     */
+    void setUpRastering(int width, int height, int depth, int count);
+
+    /** Returns the number of routes, after setUpRouting. */
+    int numRoutes();
+
+    /** Returns the number of rasters, after setUpRastering. */
+    int numRasters();
+
+    /**
+     * Snaps the start and end of a route to the graph.
+     * @param route The route number.
+     * @return The sum of the two vertex ids.
+     */
+    long closest(int route);
+
+    /**
+     * Snaps the start and end of a route to the graph as closest does, but by checking every
+     * vertex with GraphDB.closestByScan.
+     * @param route The route number.
+     * @return The sum of the two vertex ids.
+     */
+    long closestByScan(int route);
+
+    /**
+     * Finds the shortest path of a route with the strategy given to setUpRouting.
+     * @param route The route number.
+     * @return The path.
+     */
+    Object shortestPath(int route);
+
+    /**
+     * Builds the directions for a route's shortest path, found during setUpRouting.
+     * @param route The route number.
+     * @return The directions.
+     */
+    Object routeDirections(int route);
+
+    /**
+     * Computes the raster parameters of a raster request with Rasterer.getMapRaster.
+     * @param raster The raster number.
+     * @return The response parameters.
+     */
+    Object getMapRaster(int raster);
+
+    /**
+     * Computes the typed raster of a raster request with Rasterer.raster, which is what
+     * MapServer uses.
+     * @param raster The raster number.
+     * @return The raster.
+     */
+    Object raster(int raster);
+
+    /**
+     * Produces the whole /raster response for a raster request, image included.
+     * @param raster The raster number.
+     * @return The number of bytes written.
+     * @throws IOException If the image cannot be encoded.
+     */
+    int rasterImage(int raster) throws IOException;
+}
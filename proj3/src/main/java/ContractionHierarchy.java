@@ -0,0 +1,486 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A contraction hierarchy over a GraphDB, answering shortest path queries with a
+ * bidirectional Dijkstra search that only follows edges towards more important vertices.
+ *
+ * Preprocessing contracts vertices one at a time in order of increasing importance,
+ * adding a shortcut edge between two neighbors of the contracted vertex whenever the path
+ * through it is the only shortest path between them. The result is stored as an upward
+ * graph in compressed sparse row form, where every shortcut remembers the vertex it
+ * bypasses so that query results can be unpacked into paths of original edges.
+ *
+ * Vertices are referred to by their dense GraphDB index. Preprocessing takes a few
+ * seconds on the Berkeley graph, so the result can be saved to and loaded from a file.
+ */
+public class ContractionHierarchy {
+    private static final int MAGIC = 0x43484731;
+    private static final int VERSION = 1;
+    /** Witness searches give up after settling this many vertices. */
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+    /** Cheaper limit used when only estimating the cost of contracting a vertex. */
+    private static final int SIMULATED_WITNESS_SETTLE_LIMIT = 50;
+
+    /** Fingerprint of the graph this hierarchy was built from. */
+    private final long fingerprint;
+    /** rank[v] is the position of v in the contraction order. */
+    private final int[] rank;
+    /* Upward edges of v are upTargets[upOffsets[v]] through upTargets[upOffsets[v + 1] - 1]. */
+    private final int[] upOffsets;
+    private final int[] upTargets;
+    private final double[] upWeights;
+    /** The vertex a shortcut bypasses, or -1 for an original edge. */
+    private final int[] upMiddles;
+
+    private ContractionHierarchy(long fingerprint, int[] rank, int[] upOffsets, int[] upTargets,
+                                 double[] upWeights, int[] upMiddles) {
+        this.fingerprint = fingerprint;
+        this.rank = rank;
+        this.upOffsets = upOffsets;
+        this.upTargets = upTargets;
+        this.upWeights = upWeights;
+        this.upMiddles = upMiddles;
+    }
+
+    /**
+     * Loads the hierarchy for g from cachePath if the file exists and was built from the
+     * same graph, otherwise builds it and tries to save it to cachePath.
+     * @param g The graph.
+     * @param cachePath Path of the cache file, or null to always build.
+     * @return The contraction hierarchy for g.
+     */
+    public static ContractionHierarchy loadOrBuild(GraphDB g, String cachePath) {
+        long fingerprint = fingerprint(g);
+        if (cachePath != null && new File(cachePath).isFile()) {
+            try {
+                ContractionHierarchy ch = load(cachePath);
+                if (ch.fingerprint == fingerprint) {
+                    return ch;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        ContractionHierarchy ch = build(g);
+        if (cachePath != null) {
+            try {
+                ch.save(cachePath);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return ch;
+    }
+
+    /** Checksum of the vertex ids and edges of g, used to validate cache files. */
+    static long fingerprint(GraphDB g) {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[8];
+        for (long id : g.ids) {
+            for (int i = 0; i < 8; i++) {
+                buffer[i] = (byte) (id >>> (8 * i));
+            }
+            crc.update(buffer, 0, 8);
+        }
+        for (int e = 0; e < g.targets.length; e++) {
+            int target = g.targets[e];
+            int length = Float.floatToIntBits(g.edgeLengths[e]);
+            for (int i = 0; i < 4; i++) {
+                buffer[i] = (byte) (target >>> (8 * i));
+                buffer[i + 4] = (byte) (length >>> (8 * i));
+            }
+            crc.update(buffer, 0, 8);
+        }
+        return crc.getValue() ^ ((long) g.size() << 32);
+    }
+
+    /**
+     * Contracts every vertex of g and returns the resulting hierarchy.
+     * @param g The graph.
+     * @return The contraction hierarchy for g.
+     */
+    public static ContractionHierarchy build(GraphDB g) {
+        return new Builder(g).build();
+    }
+
+    /**
+     * Returns the ids of the vertices on a shortest path from st to dest, or an empty
+     * list if dest cannot be reached.
+     * @param g The graph this hierarchy was built from.
+     * @param st The dense index of the start vertex.
+     * @param dest The dense index of the destination vertex.
+     * @return The ids of the vertices on the path, in order.
+     */
+    public List<Long> shortestPath(GraphDB g, int st, int dest) {
+        SearchContext fwd = SearchContext.get(g, SearchContext.FORWARD);
+        SearchContext bwd = SearchContext.get(g, SearchContext.BACKWARD);
+        fwd.update(st, 0.0, -1);
+        fwd.pq.insertOrDecrease(st, 0.0);
+        bwd.update(dest, 0.0, -1);
+        bwd.pq.insertOrDecrease(dest, 0.0);
+
+        double best = Double.POSITIVE_INFINITY;
+        int meet = -1;
+        while (true) {
+            boolean fwdDone = fwd.pq.isEmpty() || fwd.pq.minKey() >= best;
+            boolean bwdDone = bwd.pq.isEmpty() || bwd.pq.minKey() >= best;
+            if (fwdDone && bwdDone) {
+                break;
+            }
+            SearchContext ctx = fwdDone ? bwd : bwdDone ? fwd
+                    : fwd.pq.minKey() <= bwd.pq.minKey() ? fwd : bwd;
+            SearchContext other = ctx == fwd ? bwd : fwd;
+
+            int v = ctx.pq.deleteMin();
+            ctx.settled++;
+            double dist = ctx.distTo[v];
+            if (other.reached(v) && dist + other.distTo[v] < best) {
+                best = dist + other.distTo[v];
+                meet = v;
+            }
+            if (stalled(ctx, v, dist)) {
+                continue;
+            }
+            for (int e = upOffsets[v]; e < upOffsets[v + 1]; e++) {
+                int w = upTargets[e];
+                double newDist = dist + upWeights[e];
+                if (newDist < ctx.dist(w)) {
+                    ctx.update(w, newDist, v);
+                    ctx.pq.insertOrDecrease(w, newDist);
+                }
+            }
+        }
+        if (meet < 0) {
+            return new ArrayList<>();
+        }
+
+        List<Long> path = new ArrayList<>();
+        List<Integer> down = new ArrayList<>();
+        for (int v = meet; v != st; v = fwd.edgeTo[v]) {
+            down.add(v);
+        }
+        down.add(st);
+        Collections.reverse(down);
+        path.add(g.ids[st]);
+        for (int i = 0; i + 1 < down.size(); i++) {
+            unpack(g, down.get(i), down.get(i + 1), path);
+        }
+        for (int v = meet; v != dest; v = bwd.edgeTo[v]) {
+            unpack(g, v, bwd.edgeTo[v], path);
+        }
+        return path;
+    }
+
+    /**
+     * Stall-on-demand: v need not be expanded if some more important neighbor already
+     * offers a shorter path to it, since then v is not on a shortest upward path.
+     */
+    private boolean stalled(SearchContext ctx, int v, double dist) {
+        for (int e = upOffsets[v]; e < upOffsets[v + 1]; e++) {
+            if (ctx.dist(upTargets[e]) + upWeights[e] < dist) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Appends the ids of the original path from u to w, excluding u, to path. */
+    private void unpack(GraphDB g, int u, int w, List<Long> path) {
+        int middle = upMiddles[upEdge(u, w)];
+        if (middle < 0) {
+            path.add(g.ids[w]);
+        } else {
+            unpack(g, u, middle, path);
+            unpack(g, middle, w, path);
+        }
+    }
+
+    /** Returns the index of the upward edge between u and w. */
+    private int upEdge(int u, int w) {
+        int low = rank[u] < rank[w] ? u : w;
+        int high = low == u ? w : u;
+        for (int e = upOffsets[low]; e < upOffsets[low + 1]; e++) {
+            if (upTargets[e] == high) {
+                return e;
+            }
+        }
+        throw new IllegalStateException("No edge between " + u + " and " + w);
+    }
+
+    /** Number of upward edges, original and shortcut. */
+    public int numEdges() {
+        return upTargets.length;
+    }
+
+    /**
+     * Writes this hierarchy to a file.
+     * @param path The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void save(String path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fingerprint);
+            out.writeInt(rank.length);
+            out.writeInt(upTargets.length);
+            for (int r : rank) {
+                out.writeInt(r);
+            }
+            for (int o : upOffsets) {
+                out.writeInt(o);
+            }
+            for (int e = 0; e < upTargets.length; e++) {
+                out.writeInt(upTargets[e]);
+                out.writeDouble(upWeights[e]);
+                out.writeInt(upMiddles[e]);
+            }
+        }
+    }
+
+    /**
+     * Reads a hierarchy written by save.
+     * @param path The file to read.
+     * @return The hierarchy stored in the file.
+     * @throws IOException If the file cannot be read or is not a hierarchy file.
+     */
+    public static ContractionHierarchy load(String path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(path + " is not a contraction hierarchy file");
+            }
+            long fingerprint = in.readLong();
+            int n = in.readInt();
+            int m = in.readInt();
+            int[] rank = new int[n];
+            for (int v = 0; v < n; v++) {
+                rank[v] = in.readInt();
+            }
+            int[] upOffsets = new int[n + 1];
+            for (int v = 0; v <= n; v++) {
+                upOffsets[v] = in.readInt();
+            }
+            int[] upTargets = new int[m];
+            double[] upWeights = new double[m];
+            int[] upMiddles = new int[m];
+            for (int e = 0; e < m; e++) {
+                upTargets[e] = in.readInt();
+                upWeights[e] = in.readDouble();
+                upMiddles[e] = in.readInt();
+            }
+            return new ContractionHierarchy(fingerprint, rank, upOffsets, upTargets,
+                    upWeights, upMiddles);
+        }
+    }
+
+    /**
+     * Mutable graph used while contracting. Edges are stored in both directions, and a
+     * vertex is removed from its neighbors' lists once it has been contracted, so the
+     * lists only ever hold the remaining graph.
+     */
+    private static class Builder {
+        private final GraphDB g;
+        private final int n;
+        private final int[][] adj;
+        private final double[][] weights;
+        private final int[][] middles;
+        private final int[] degree;
+        /** Edges from each contracted vertex to the neighbors it had when contracted. */
+        private final int[][] upAdj;
+        private final double[][] upWeights;
+        private final int[][] upMiddles;
+        private final int[] contractedNeighbors;
+        private final int[] level;
+        private final SearchContext witness;
+
+        Builder(GraphDB g) {
+            this.g = g;
+            n = g.size();
+            adj = new int[n][];
+            weights = new double[n][];
+            middles = new int[n][];
+            degree = new int[n];
+            upAdj = new int[n][];
+            upWeights = new double[n][];
+            upMiddles = new int[n][];
+            contractedNeighbors = new int[n];
+            level = new int[n];
+            witness = new SearchContext(n);
+            for (int v = 0; v < n; v++) {
+                int d = g.offsets[v + 1] - g.offsets[v];
+                adj[v] = new int[Math.max(d, 2)];
+                weights[v] = new double[adj[v].length];
+                middles[v] = new int[adj[v].length];
+            }
+            for (int v = 0; v < n; v++) {
+                for (int e = g.offsets[v]; e < g.offsets[v + 1]; e++) {
+                    addOrLower(v, g.targets[e], g.edgeLengths[e], -1);
+                }
+            }
+        }
+
+        /** Adds the edge v-w, or lowers its weight if the edge already exists. */
+        private void addOrLower(int v, int w, double weight, int middle) {
+            for (int i = 0; i < degree[v]; i++) {
+                if (adj[v][i] == w) {
+                    if (weight < weights[v][i]) {
+                        weights[v][i] = weight;
+                        middles[v][i] = middle;
+                    }
+                    return;
+                }
+            }
+            if (degree[v] == adj[v].length) {
+                adj[v] = Arrays.copyOf(adj[v], 2 * degree[v]);
+                weights[v] = Arrays.copyOf(weights[v], 2 * degree[v]);
+                middles[v] = Arrays.copyOf(middles[v], 2 * degree[v]);
+            }
+            adj[v][degree[v]] = w;
+            weights[v][degree[v]] = weight;
+            middles[v][degree[v]] = middle;
+            degree[v]++;
+        }
+
+        /** Removes the edge v-w from the list of v. */
+        private void remove(int v, int w) {
+            for (int i = 0; i < degree[v]; i++) {
+                if (adj[v][i] == w) {
+                    degree[v]--;
+                    adj[v][i] = adj[v][degree[v]];
+                    weights[v][i] = weights[v][degree[v]];
+                    middles[v][i] = middles[v][degree[v]];
+                    return;
+                }
+            }
+        }
+
+        ContractionHierarchy build() {
+            IndexedMinPQ order = new IndexedMinPQ(n);
+            for (int v = 0; v < n; v++) {
+                order.insertOrDecrease(v, priority(v));
+            }
+            int[] rank = new int[n];
+            int next = 0;
+            while (!order.isEmpty()) {
+                int v = order.deleteMin();
+                /* Lazy update: re-check the priority and defer v if it got worse. */
+                double p = priority(v);
+                if (!order.isEmpty() && p > order.minKey()) {
+                    order.insertOrDecrease(v, p);
+                    continue;
+                }
+                contract(v, true);
+                rank[v] = next++;
+                upAdj[v] = Arrays.copyOf(adj[v], degree[v]);
+                upWeights[v] = Arrays.copyOf(weights[v], degree[v]);
+                upMiddles[v] = Arrays.copyOf(middles[v], degree[v]);
+                for (int u : upAdj[v]) {
+                    remove(u, v);
+                    contractedNeighbors[u]++;
+                    level[u] = Math.max(level[u], level[v] + 1);
+                }
+                adj[v] = null;
+                weights[v] = null;
+                middles[v] = null;
+            }
+
+            int[] upOffsets = new int[n + 1];
+            for (int v = 0; v < n; v++) {
+                upOffsets[v + 1] = upOffsets[v] + upAdj[v].length;
+            }
+            int[] targets = new int[upOffsets[n]];
+            double[] lengths = new double[upOffsets[n]];
+            int[] via = new int[upOffsets[n]];
+            for (int v = 0; v < n; v++) {
+                System.arraycopy(upAdj[v], 0, targets, upOffsets[v], upAdj[v].length);
+                System.arraycopy(upWeights[v], 0, lengths, upOffsets[v], upAdj[v].length);
+                System.arraycopy(upMiddles[v], 0, via, upOffsets[v], upAdj[v].length);
+            }
+            return new ContractionHierarchy(fingerprint(g), rank, upOffsets, targets,
+                    lengths, via);
+        }
+
+        /**
+         * Importance of v: the number of shortcuts contracting it would add minus the
+         * edges it would remove, plus terms that spread contraction evenly over the graph.
+         */
+        private double priority(int v) {
+            return contract(v, false) - degree[v] + contractedNeighbors[v] + level[v];
+        }
+
+        /**
+         * Finds the shortcuts needed to contract v, adding them if add is true.
+         * @return The number of shortcuts needed.
+         */
+        private int contract(int v, boolean add) {
+            int shortcuts = 0;
+            int limit = add ? WITNESS_SETTLE_LIMIT : SIMULATED_WITNESS_SETTLE_LIMIT;
+            for (int i = 0; i < degree[v]; i++) {
+                int u = adj[v][i];
+                double maxDist = 0;
+                for (int j = 0; j < degree[v]; j++) {
+                    if (adj[v][j] > u) {
+                        maxDist = Math.max(maxDist, weights[v][i] + weights[v][j]);
+                    }
+                }
+                if (maxDist == 0) {
+                    continue;
+                }
+                witnessSearch(u, v, maxDist, limit);
+                for (int j = 0; j < degree[v]; j++) {
+                    int w = adj[v][j];
+                    if (w <= u) {
+                        continue;
+                    }
+                    double viaV = weights[v][i] + weights[v][j];
+                    if (witness.dist(w) > viaV) {
+                        shortcuts++;
+                        if (add) {
+                            addOrLower(u, w, viaV, v);
+                            addOrLower(w, u, viaV, v);
+                        }
+                    }
+                }
+            }
+            return shortcuts;
+        }
+
+        /**
+         * Dijkstra from u over the remaining graph without v, up to maxDist or until
+         * limit vertices have been settled.
+         */
+        private void witnessSearch(int u, int v, double maxDist, int limit) {
+            witness.reset();
+            witness.update(u, 0.0, -1);
+            witness.pq.insertOrDecrease(u, 0.0);
+            int settled = 0;
+            while (!witness.pq.isEmpty() && settled < limit) {
+                int x = witness.pq.deleteMin();
+                double dist = witness.distTo[x];
+                settled++;
+                for (int i = 0; i < degree[x]; i++) {
+                    int y = adj[x][i];
+                    double newDist = dist + weights[x][i];
+                    if (y != v && newDist <= maxDist && newDist < witness.dist(y)) {
+                        witness.update(y, newDist, x);
+                        witness.pq.insertOrDecrease(y, newDist);
+                    }
+                }
+            }
+        }
+    }
+}
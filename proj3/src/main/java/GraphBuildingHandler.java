@@ -36,10 +36,38 @@ public class GraphBuildingHandler extends DefaultHandler {
             ("motorway", "trunk", "primary", "secondary", "tertiary", "unclassified",
                     "residential", "living_street", "motorway_link", "trunk_link", "primary_link",
                     "secondary_link", "tertiary_link"));
-    private String activeState = "";
+    /** What the parser is inside of, so that tags and node references go to the right place. */
+    private static final int OUTSIDE = 0;
+    private static final int IN_NODE = 1;
+    private static final int IN_WAY = 2;
+    private static final int INITIAL_CAPACITY = 1024;
+
     private final GraphDB g;
-    private GraphDB.Node lastNode;
-    private GraphDB.Way lastWay;
+    private int state = OUTSIDE;
+
+    /*
+     * Every node is buffered as its id, coordinates and name in parallel arrays, in the order
+     * the nodes appear in the file. No per-node objects are created while parsing.
+     */
+    private int numNodes;
+    private long[] nodeIds = new long[INITIAL_CAPACITY];
+    private double[] nodeLons = new double[INITIAL_CAPACITY];
+    private double[] nodeLats = new double[INITIAL_CAPACITY];
+    private String[] nodeNames = new String[INITIAL_CAPACITY];
+
+    /*
+     * Every way is buffered the same way. The node references of all ways are concatenated
+     * in refs, and the references of way i end at refs[wayRefEnds[i] - 1].
+     */
+    private int numWays;
+    private long[] wayIds = new long[INITIAL_CAPACITY];
+    private boolean[] wayValid = new boolean[INITIAL_CAPACITY];
+    private int[] wayRefEnds = new int[INITIAL_CAPACITY];
+    private String[] wayNames = new String[INITIAL_CAPACITY];
+    private String[] wayHighways = new String[INITIAL_CAPACITY];
+    private String[] wayMaxspeeds = new String[INITIAL_CAPACITY];
+    private int numRefs;
+    private long[] refs = new long[INITIAL_CAPACITY];
 
     /**
      * Create a new GraphBuildingHandler.
@@ -66,39 +94,32 @@ public class GraphBuildingHandler extends DefaultHandler {
     @Override
     public void startElement(String uri, String localName, String qName, Attributes attributes)
             throws SAXException {
-        if (qName.equals("node")) {
-            activeState = "node";
-            GraphDB.Node n = new GraphDB.Node(
-                    attributes.getValue("id"),
-                    attributes.getValue("lat"),
-                    attributes.getValue("lon")
-            );
-            lastNode = n;
-            g.addNode(n);
-        } else if (qName.equals("way")) {
-            activeState = "way";
-            GraphDB.Way w = new GraphDB.Way(attributes.getValue("id"));
-            lastWay = w;
-            g.addWay(w);
-        } else if (activeState.equals("way") && qName.equals("nd")) {
-            lastWay.linkedNode.add(Long.parseLong(attributes.getValue("ref")));
-            g.nodes.get(Long.parseLong(attributes.getValue("ref"))).linkedWays.add(lastWay.id);
-        } else if (activeState.equals("way") && qName.equals("tag")) {
-            String k = attributes.getValue("k");
-            String v = attributes.getValue("v");
-            if (k.equals("maxspeed")) {
-                lastWay.extraInfo.put(k,v);
-            } else if (k.equals("highway")) {
-                if (ALLOWED_HIGHWAY_TYPES.contains(v)) {
-                    lastWay.valid = true;
-                    lastWay.extraInfo.put(k, v);
+        switch (qName) {
+            case "node":
+                state = IN_NODE;
+                addNode(Long.parseLong(attributes.getValue("id")),
+                        Double.parseDouble(attributes.getValue("lon")),
+                        Double.parseDouble(attributes.getValue("lat")));
+                break;
+            case "way":
+                state = IN_WAY;
+                addWay(Long.parseLong(attributes.getValue("id")));
+                break;
+            case "nd":
+                if (state == IN_WAY) {
+                    addRef(Long.parseLong(attributes.getValue("ref")));
                 }
-            } else if (k.equals("name")) {
-                lastWay.extraInfo.put(k,v);
-            }
-        } else if (activeState.equals("node") && qName.equals("tag") && attributes.getValue("k")
-                .equals("name")) {
-            lastNode.extraInfo.put(attributes.getValue("k"),attributes.getValue("v"));
+                break;
+            case "tag":
+                if (state == IN_WAY) {
+                    addWayTag(attributes.getValue("k"), attributes.getValue("v"));
+                } else if (state == IN_NODE && "name".equals(attributes.getValue("k"))) {
+                    nodeNames[numNodes - 1] = attributes.getValue("v");
+                }
+                break;
+            default:
+                state = OUTSIDE;
+                break;
         }
     }
 
@@ -115,9 +136,239 @@ public class GraphBuildingHandler extends DefaultHandler {
      */
     @Override
     public void endElement(String uri, String localName, String qName) throws SAXException {
-        if (qName.equals("way") && lastWay.valid) {
-            g.addAdjacent(lastWay);
+        if (qName.equals("node") || qName.equals("way")) {
+            state = OUTSIDE;
+        }
+    }
+
+    private void addNode(long id, double lon, double lat) {
+        if (numNodes == nodeIds.length) {
+            int capacity = 2 * numNodes;
+            nodeIds = Arrays.copyOf(nodeIds, capacity);
+            nodeLons = Arrays.copyOf(nodeLons, capacity);
+            nodeLats = Arrays.copyOf(nodeLats, capacity);
+            nodeNames = Arrays.copyOf(nodeNames, capacity);
+        }
+        nodeIds[numNodes] = id;
+        nodeLons[numNodes] = lon;
+        nodeLats[numNodes] = lat;
+        numNodes++;
+    }
+
+    private void addWay(long id) {
+        if (numWays == wayIds.length) {
+            int capacity = 2 * numWays;
+            wayIds = Arrays.copyOf(wayIds, capacity);
+            wayValid = Arrays.copyOf(wayValid, capacity);
+            wayRefEnds = Arrays.copyOf(wayRefEnds, capacity);
+            wayNames = Arrays.copyOf(wayNames, capacity);
+            wayHighways = Arrays.copyOf(wayHighways, capacity);
+            wayMaxspeeds = Arrays.copyOf(wayMaxspeeds, capacity);
+        }
+        wayIds[numWays] = id;
+        wayRefEnds[numWays] = numRefs;
+        numWays++;
+    }
+
+    private void addRef(long ref) {
+        if (numRefs == refs.length) {
+            refs = Arrays.copyOf(refs, 2 * numRefs);
+        }
+        refs[numRefs++] = ref;
+        wayRefEnds[numWays - 1] = numRefs;
+    }
+
+    private void addWayTag(String k, String v) {
+        int way = numWays - 1;
+        if (k.equals("maxspeed")) {
+            wayMaxspeeds[way] = v;
+        } else if (k.equals("highway")) {
+            if (ALLOWED_HIGHWAY_TYPES.contains(v)) {
+                wayValid[way] = true;
+                wayHighways[way] = v;
+            }
+        } else if (k.equals("name")) {
+            wayNames[way] = v;
         }
     }
 
+    private int wayRefStart(int way) {
+        return way == 0 ? 0 : wayRefEnds[way - 1];
+    }
+
+    /**
+     * Builds the compressed sparse row form of g from everything parsed so far. Only nodes
+     * that are joined to another node by a valid way become vertices, and only the ways that
+     * pass through a vertex are kept in g.ways. References to nodes missing from the file
+     * are ignored. If a node id appears more than once, its last occurrence wins.
+     */
+    void build() {
+        /* Sorted, distinct node ids; a node's position in this array is its temporary index. */
+        long[] sortedIds = Arrays.copyOf(nodeIds, numNodes);
+        Arrays.sort(sortedIds);
+        int distinct = 0;
+        for (int i = 0; i < sortedIds.length; i++) {
+            if (distinct == 0 || sortedIds[distinct - 1] != sortedIds[i]) {
+                sortedIds[distinct++] = sortedIds[i];
+            }
+        }
+        int n = distinct;
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        String[] names = new String[n];
+        for (int i = 0; i < numNodes; i++) {
+            int v = Arrays.binarySearch(sortedIds, 0, n, nodeIds[i]);
+            lons[v] = nodeLons[i];
+            lats[v] = nodeLats[i];
+            names[v] = nodeNames[i];
+        }
+        int[] refIndex = new int[numRefs];
+        for (int r = 0; r < numRefs; r++) {
+            refIndex[r] = Arrays.binarySearch(sortedIds, 0, n, refs[r]);
+        }
+
+        /* Both directions of every edge of a valid way, grouped by source with a counting sort. */
+        int[] degree = new int[n + 1];
+        for (int way = 0; way < numWays; way++) {
+            if (!wayValid[way]) {
+                continue;
+            }
+            for (int r = wayRefStart(way) + 1; r < wayRefEnds[way]; r++) {
+                if (refIndex[r - 1] >= 0 && refIndex[r] >= 0) {
+                    degree[refIndex[r - 1] + 1]++;
+                    degree[refIndex[r] + 1]++;
+                }
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            degree[v + 1] += degree[v];
+        }
+        int[] next = Arrays.copyOf(degree, n);
+        int[] neighbors = new int[degree[n]];
+        for (int way = 0; way < numWays; way++) {
+            if (!wayValid[way]) {
+                continue;
+            }
+            for (int r = wayRefStart(way) + 1; r < wayRefEnds[way]; r++) {
+                int a = refIndex[r - 1];
+                int b = refIndex[r];
+                if (a >= 0 && b >= 0) {
+                    neighbors[next[a]++] = b;
+                    neighbors[next[b]++] = a;
+                }
+            }
+        }
+
+        /* Keep the nodes with at least one edge, renumbered in increasing order of id. */
+        int[] vertex = new int[n];
+        int size = 0;
+        for (int v = 0; v < n; v++) {
+            vertex[v] = degree[v + 1] > degree[v] ? size++ : -1;
+        }
+        g.ids = new long[size];
+        g.lons = new double[size];
+        g.lats = new double[size];
+        g.names = new String[size];
+        g.offsets = new int[size + 1];
+        int numEdges = 0;
+        for (int v = 0; v < n; v++) {
+            int u = vertex[v];
+            if (u < 0) {
+                continue;
+            }
+            g.ids[u] = sortedIds[v];
+            g.lons[u] = lons[v];
+            g.lats[u] = lats[v];
+            g.names[u] = names[v];
+            Arrays.sort(neighbors, degree[v], degree[v + 1]);
+            for (int e = degree[v]; e < degree[v + 1]; e++) {
+                if (e == degree[v] || neighbors[e] != neighbors[e - 1]) {
+                    numEdges++;
+                }
+            }
+            g.offsets[u + 1] = numEdges;
+        }
+        g.targets = new int[numEdges];
+        g.edgeLengths = new float[numEdges];
+        int e = 0;
+        for (int v = 0; v < n; v++) {
+            int u = vertex[v];
+            for (int i = degree[v]; u >= 0 && i < degree[v + 1]; i++) {
+                if (i == degree[v] || neighbors[i] != neighbors[i - 1]) {
+                    g.targets[e] = vertex[neighbors[i]];
+                    g.edgeLengths[e] = g.edgeLength(u, g.targets[e]);
+                    e++;
+                }
+            }
+        }
+        buildWays(refIndex, vertex, size);
+    }
+
+    /**
+     * Fills g.linkedWays with the ways through each vertex, in the iteration order of a
+     * HashSet<Long> of their ids rather than the order they were parsed, and creates a
+     * GraphDB.Way for each of those ways.
+     */
+    private void buildWays(int[] refIndex, int[] vertex, int size) {
+        int[] count = new int[size + 1];
+        for (int r = 0; r < numRefs; r++) {
+            if (refIndex[r] >= 0 && vertex[refIndex[r]] >= 0) {
+                count[vertex[refIndex[r]] + 1]++;
+            }
+        }
+        for (int u = 0; u < size; u++) {
+            count[u + 1] += count[u];
+        }
+        int[] filled = Arrays.copyOf(count, size);
+        int[] waysOf = new int[count[size]];
+        boolean[] used = new boolean[numWays];
+        for (int way = 0; way < numWays; way++) {
+            for (int r = wayRefStart(way); r < wayRefEnds[way]; r++) {
+                if (refIndex[r] < 0 || vertex[refIndex[r]] < 0) {
+                    continue;
+                }
+                int u = vertex[refIndex[r]];
+                if (filled[u] == count[u] || waysOf[filled[u] - 1] != way) {
+                    waysOf[filled[u]++] = way;
+                    used[way] = true;
+                }
+            }
+        }
+        g.linkedWays = new long[size][];
+        for (int u = 0; u < size; u++) {
+            /* GraphDB.findWay takes the first way that matches, so keep the HashSet order the
+             * ways of a node have always been listed in. */
+            Set<Long> linked = new HashSet<>();
+            for (int i = count[u]; i < filled[u]; i++) {
+                linked.add(wayIds[waysOf[i]]);
+            }
+            g.linkedWays[u] = new long[linked.size()];
+            int j = 0;
+            for (long w : linked) {
+                g.linkedWays[u][j++] = w;
+            }
+        }
+
+        g.ways.clear();
+        for (int way = 0; way < numWays; way++) {
+            if (!used[way]) {
+                continue;
+            }
+            GraphDB.Way w = new GraphDB.Way(wayIds[way]);
+            w.valid = wayValid[way];
+            for (int r = wayRefStart(way); r < wayRefEnds[way]; r++) {
+                w.linkedNode.add(refs[r]);
+            }
+            if (wayMaxspeeds[way] != null) {
+                w.extraInfo.put("maxspeed", wayMaxspeeds[way]);
+            }
+            if (wayHighways[way] != null) {
+                w.extraInfo.put("highway", wayHighways[way]);
+            }
+            if (wayNames[way] != null) {
+                w.extraInfo.put("name", wayNames[way]);
+            }
+            g.addWay(w);
+        }
+    }
 }
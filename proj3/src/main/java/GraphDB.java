@@ -1,8 +1,11 @@
 import org.xml.sax.SAXException;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -21,40 +24,43 @@ public class GraphDB {
     /** Your instance variables for storing the graph. You should consider
      * creating helper classes, e.g. Node, Edge, etc. */
 
-    public Map<Long,Node> nodes = new HashMap<>();
+    /** The ways through at least one vertex, by id. */
     public Map<Long,Way> ways = new HashMap<>();
-    public Map<Long,Set<Long>> adjs = new HashMap<>();
 
-    public void addAdjacent(Way way) {
-        if (way.linkedNode.size() < 2) return;
-        for (int i = 0; i < way.linkedNode.size() - 1; i++) {
-            addEdge(way.linkedNode.get(i),way.linkedNode.get(i + 1));
-        }
-    }
-
-    private void addEdge(long v,long w) {
-        adjs.computeIfAbsent(v,k -> new HashSet<>()).add(w);
-        adjs.computeIfAbsent(w,k -> new HashSet<>()).add(v);
-    }
-
-    static class Node {
-        long id;
-        double lat;
-        double lon;
-        Set<Long> linkedWays;
-        Map<String,String> extraInfo;
-        Node(String id,String lat,String lon) {
-            this.id = Long.parseLong(id);
-            this.lat = Double.parseDouble(lat);
-            this.lon = Double.parseDouble(lon);
-            extraInfo = new HashMap<>();
-            linkedWays = new HashSet<>();
-        }
-    }
+    /*
+     * Compressed sparse row form of the graph, built by GraphBuildingHandler or loaded from
+     * a snapshot. Vertices are renumbered 0..size()-1 in increasing order of OSM id, so
+     * ids[v] is the OSM id of vertex v. The neighbors of v are targets[offsets[v]] through
+     * targets[offsets[v + 1] - 1], and edgeLengths holds the matching great-circle lengths.
+     */
+    long[] ids;
+    double[] lons;
+    double[] lats;
+    int[] offsets;
+    int[] targets;
+    float[] edgeLengths;
+    /** The seconds each edge takes at its way's speed limit, from TravelTimes. */
+    float[] edgeTimes;
+    /** At least the speed of every edge in miles per hour, for travel-time heuristics. */
+    double maxSpeed;
+    /** The name of each vertex, or null if it has none. */
+    String[] names;
+    /**
+     * The ids of the ways each vertex is on, in the iteration order of a HashSet<Long> of
+     * them, which findWay and buildEdgeWays depend on to pick between shared ways.
+     */
+    long[][] linkedWays;
+    /** The id of the way each edge is named after, or -1 if it is on none; see findWay. */
+    long[] edgeWays;
 
-    public void addNode(Node node) {
-        nodes.put(node.id, node);
-    }
+    /** Spatial index over the vertices, built once the graph has been cleaned. */
+    private KdTree index;
+    /** Contraction hierarchy for Router, built on first use. */
+    private volatile ContractionHierarchy contractionHierarchy;
+    /** Landmark distances for Router's ALT strategy, built on first use. */
+    private volatile Landmarks landmarks;
+    /** Whether the graph came from a snapshot or a complete parse of the XML file. */
+    private boolean loaded;
 
     static class Way {
         long id;
@@ -62,7 +68,10 @@ public class GraphDB {
         List<Long> linkedNode;
         Map<String,String> extraInfo;
         Way(String id) {
-            this.id = Long.parseLong(id);
+            this(Long.parseLong(id));
+        }
+        Way(long id) {
+            this.id = id;
             linkedNode = new ArrayList<>();
             extraInfo = new HashMap<>();
         }
@@ -72,8 +81,22 @@ public class GraphDB {
         ways.put(way.id, way);
     }
 
+    /**
+     * Returns the name of the way from vertex c to vertex n: the first way through c, in
+     * the order of linkedWays, that also goes through n.
+     * @param c The id of the first vertex.
+     * @param n The id of the second vertex.
+     * @return The name of the way, or "" if it has none or there is no such way.
+     */
     public String findWay(long c, long n) {
-        for (long w : nodes.get(c).linkedWays) {
+        int v = index(c);
+        int u = index(n);
+        int e = u < 0 ? -1 : edge(v, u);
+        if (e >= 0) {
+            return wayName(e);
+        }
+        /* Vertices that are not neighbors are not in edgeWays, so look through the ways. */
+        for (long w : linkedWays[v]) {
             if (ways.get(w).linkedNode.contains(n)) {
                 String name = ways.get(w).extraInfo.get("name");
                 return name == null ? "" : name;
@@ -82,28 +105,116 @@ public class GraphDB {
         return "";
     }
 
+    /**
+     * Returns the name of the way an edge is on, as findWay would for its two vertices.
+     * @param e The index of the edge.
+     * @return The name of the way, or "" if it has none or there is no such way.
+     */
+    String wayName(int e) {
+        long w = edgeWays[e];
+        if (w < 0) {
+            return "";
+        }
+        String name = ways.get(w).extraInfo.get("name");
+        return name == null ? "" : name;
+    }
+
+    /**
+     * Returns the index of the edge from vertex v to vertex w.
+     * @param v The index of the first vertex.
+     * @param w The index of the second vertex.
+     * @return The index into targets of the edge, or -1 if there is none.
+     */
+    int edge(int v, int w) {
+        int e = Arrays.binarySearch(targets, offsets[v], offsets[v + 1], w);
+        return e < 0 ? -1 : e;
+    }
 
+    /**
+     * Fills edgeWays. A way goes through both ends of an edge exactly when it is in the
+     * linkedWays of both, and those lists are short, so this takes time linear in the
+     * number of edges rather than in the lengths of the ways.
+     */
+    private void buildEdgeWays() {
+        edgeWays = new long[targets.length];
+        for (int v = 0; v < ids.length; v++) {
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                edgeWays[e] = -1;
+                long[] there = linkedWays[targets[e]];
+                for (long w : linkedWays[v]) {
+                    if (contains(there, w)) {
+                        edgeWays[e] = w;
+                        break;
+                    }
+                }
+            }
+        }
+    }
 
+    private static boolean contains(long[] values, long value) {
+        for (long x : values) {
+            if (x == value) {
+                return true;
+            }
+        }
+        return false;
+    }
 
     /**
      * Example constructor shows how to create and start an XML parser.
      * You do not need to modify this constructor, but you're welcome to do so.
-     * @param dbPath Path to the XML file to be parsed.
+     * The parsed graph is saved as a binary snapshot next to the XML file, and later
+     * instances load that snapshot instead of parsing the XML again while it is up to date.
+     * If the file cannot be read or parsed, the graph holds whatever was parsed before the
+     * error, and loaded() is false.
+     * @param dbPath Path to the XML file to be parsed, gzipped if it ends in ".gz".
      */
     public GraphDB(String dbPath) {
-        try {
-            File inputFile = new File(dbPath);
-            FileInputStream inputStream = new FileInputStream(inputFile);
-            // GZIPInputStream stream = new GZIPInputStream(inputStream);
-
+        File inputFile = new File(dbPath);
+        String snapshotPath = GraphSnapshot.pathFor(dbPath);
+        if (inputFile.isFile() && GraphSnapshot.load(this, snapshotPath, inputFile)) {
+            index = new KdTree(lons, lats);
+            buildEdgeWays();
+            TravelTimes.assign(this);
+            loaded = true;
+            return;
+        }
+        GraphBuildingHandler gbh = new GraphBuildingHandler(this);
+        boolean parsed = false;
+        try (InputStream inputStream = open(inputFile)) {
             SAXParserFactory factory = SAXParserFactory.newInstance();
             SAXParser saxParser = factory.newSAXParser();
-            GraphBuildingHandler gbh = new GraphBuildingHandler(this);
             saxParser.parse(inputStream, gbh);
+            parsed = true;
         } catch (ParserConfigurationException | SAXException | IOException e) {
             e.printStackTrace();
         }
-        clean();
+        gbh.build();
+        index = new KdTree(lons, lats);
+        buildEdgeWays();
+        TravelTimes.assign(this);
+        loaded = parsed;
+        if (parsed) {
+            try {
+                GraphSnapshot.save(this, snapshotPath, inputFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /** Returns whether the whole OSM file was read, rather than none or part of it. */
+    public boolean loaded() {
+        return loaded;
+    }
+
+    /** Opens the OSM file for buffered reading, decompressing it if it is gzipped. */
+    private static InputStream open(File inputFile) throws IOException {
+        InputStream stream = new BufferedInputStream(new FileInputStream(inputFile), 1 << 16);
+        if (inputFile.getName().endsWith(".gz")) {
+            stream = new GZIPInputStream(stream, 1 << 16);
+        }
+        return stream;
     }
 
     /**
@@ -116,19 +227,92 @@ public class GraphDB {
     }
 
     /**
-     *  Remove nodes with no connections from the graph.
-     *  While this does not guarantee that any two nodes in the remaining graph are connected,
-     *  we can reasonably assume this since typically roads are connected.
+     * Returns the great-circle length of the edge between vertices v and w, rounded up
+     * to the next float so that distance-based heuristics stay consistent.
      */
-    private void clean() {
-        Set<Long> connected = new HashSet<>();
-        for (Map.Entry<Long, Set<Long>> entry : adjs.entrySet()) {
-            long v = entry.getKey();
-            connected.add(v);
-            connected.addAll(entry.getValue());
+    float edgeLength(int v, int w) {
+        double length = distance(lons[v], lats[v], lons[w], lats[w]);
+        float rounded = (float) length;
+        return rounded < length ? Math.nextUp(rounded) : rounded;
+    }
+
+    /**
+     * Builds the contraction hierarchy used by Router ahead of the first query, reusing
+     * the one saved at cachePath if it was built from this graph.
+     * @param cachePath Path of the cache file, or null to skip caching.
+     */
+    void prepareContractionHierarchy(String cachePath) {
+        contractionHierarchy = ContractionHierarchy.loadOrBuild(this, cachePath);
+    }
+
+    /**
+     * Returns the contraction hierarchy for this graph, building it if necessary.
+     * @return The contraction hierarchy.
+     */
+    ContractionHierarchy contractionHierarchy() {
+        ContractionHierarchy ch = contractionHierarchy;
+        if (ch == null) {
+            synchronized (this) {
+                if (contractionHierarchy == null) {
+                    contractionHierarchy = ContractionHierarchy.build(this);
+                }
+                ch = contractionHierarchy;
+            }
         }
-        adjs.keySet().removeIf(id -> !connected.contains(id) || adjs.get(id).isEmpty());
-        nodes.keySet().removeIf(id -> !connected.contains(id));
+        return ch;
+    }
+
+    /**
+     * Computes the landmark distances used by Router ahead of the first query.
+     * @param count The number of landmarks to use.
+     */
+    void prepareLandmarks(int count) {
+        landmarks = Landmarks.build(this, count);
+    }
+
+    /**
+     * Returns the landmark distances for this graph, computing them with the default
+     * number of landmarks if necessary.
+     * @return The landmark distances.
+     */
+    Landmarks landmarks() {
+        Landmarks l = landmarks;
+        if (l == null) {
+            synchronized (this) {
+                if (landmarks == null) {
+                    landmarks = Landmarks.build(this, Landmarks.DEFAULT_COUNT);
+                }
+                l = landmarks;
+            }
+        }
+        return l;
+    }
+
+    /**
+     * Returns the number of vertices in the graph.
+     * @return The number of vertices.
+     */
+    int size() {
+        return ids.length;
+    }
+
+    /**
+     * Returns the dense index of the vertex with the given id.
+     * @param id The id of the vertex.
+     * @return The index of the vertex in [0, size()), or a negative number if there is no
+     * such vertex.
+     */
+    int index(long id) {
+        return Arrays.binarySearch(ids, id);
+    }
+
+    /**
+     * Returns the name of a vertex.
+     * @param v The id of the vertex.
+     * @return The name of the vertex, or null if it has none.
+     */
+    String name(long v) {
+        return names[index(v)];
     }
 
     /**
@@ -136,7 +320,22 @@ public class GraphDB {
      * @return An iterable of id's of all vertices in the graph.
      */
     Iterable<Long> vertices() {
-        return Collections.unmodifiableSet(nodes.keySet());
+        return () -> new Iterator<Long>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < ids.length;
+            }
+
+            @Override
+            public Long next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return ids[next++];
+            }
+        };
     }
     /**
      * Returns ids of all vertices adjacent to v.
@@ -144,7 +343,28 @@ public class GraphDB {
      * @return An iterable of the ids of the neighbors of v.
      */
     Iterable<Long> adjacent(long v) {
-        return adjs.getOrDefault(v, Collections.emptySet());
+        int i = index(v);
+        if (i < 0) {
+            return Collections.emptyList();
+        }
+        int start = offsets[i];
+        int end = offsets[i + 1];
+        return () -> new Iterator<Long>() {
+            private int next = start;
+
+            @Override
+            public boolean hasNext() {
+                return next < end;
+            }
+
+            @Override
+            public Long next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return ids[targets[next++]];
+            }
+        };
     }
 
     /**
@@ -205,26 +425,69 @@ public class GraphDB {
      * @return The id of the node in the graph closest to the target.
      */
     long closest(double lon, double lat) {
+        int closest = index.nearest(lon, lat);
+        return closest < 0 ? -1 : ids[closest];
+    }
+
+    /**
+     * Returns the vertex closest to the given longitude and latitude by checking every
+     * vertex. Kept as a reference for the spatial index in closest.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @return The id of the node in the graph closest to the target.
+     */
+    long closestByScan(double lon, double lat) {
         double minDist = Double.MAX_VALUE;
         long closestId = -1;
 
-        for (Node n : nodes.values()) {
-            double dist = distance(lon, lat, n.lon, n.lat);
+        for (int v = 0; v < ids.length; v++) {
+            double dist = distance(lon, lat, lons[v], lats[v]);
             if (dist < minDist) {
                 minDist = dist;
-                closestId = n.id;
+                closestId = ids[v];
             }
         }
         return closestId;
     }
 
+    /**
+     * Returns the k vertices closest to the given longitude and latitude.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param k The number of vertices to return.
+     * @return The ids of the k closest vertices, nearest first.
+     */
+    List<Long> kNearest(double lon, double lat, int k) {
+        List<Long> result = new ArrayList<>();
+        for (int i : index.nearest(lon, lat, k)) {
+            result.add(ids[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns all vertices inside the given bounding box.
+     * @param ullon The upper left longitude of the box.
+     * @param ullat The upper left latitude of the box.
+     * @param lrlon The lower right longitude of the box.
+     * @param lrlat The lower right latitude of the box.
+     * @return The ids of the vertices within the box, in no particular order.
+     */
+    List<Long> withinBoundingBox(double ullon, double ullat, double lrlon, double lrlat) {
+        List<Long> result = new ArrayList<>();
+        for (int i : index.range(ullon, ullat, lrlon, lrlat)) {
+            result.add(ids[i]);
+        }
+        return result;
+    }
+
     /**
      * Gets the longitude of a vertex.
      * @param v The id of the vertex.
      * @return The longitude of the vertex.
      */
     double lon(long v) {
-        return nodes.get(v).lon;
+        return lons[index(v)];
     }
 
     /**
@@ -233,6 +496,6 @@ public class GraphDB {
      * @return The latitude of the vertex.
      */
     double lat(long v) {
-        return nodes.get(v).lat;
+        return lats[index(v)];
     }
 }
@@ -0,0 +1,248 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes binary snapshots of a frozen GraphDB, so that the server does not have
+ * to parse the OSM XML file on every start.
+ *
+ * A snapshot starts with a fixed header: a magic number, the format version, the length
+ * and modification time of the XML file it was built from, and the length and CRC32 of
+ * the payload. The payload holds the compressed sparse row arrays followed by the vertex
+ * names, the ways of each vertex and the ways themselves. A snapshot is only used if its
+ * header matches both this code and the current XML file, so editing the XML file or
+ * bumping VERSION makes GraphDB rebuild it.
+ *
+ * Snapshots are read by memory-mapping the file with FileChannel.map and copying the
+ * arrays out in bulk.
+ */
+class GraphSnapshot {
+    private static final int MAGIC = 0x47444231;
+    /** Bump whenever the payload layout or the way the graph is built changes. */
+    static final int VERSION = 2;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 8 + 8;
+
+    private GraphSnapshot() {
+    }
+
+    /**
+     * Returns the path of the snapshot for the given OSM file.
+     * @param dbPath Path to the OSM XML file.
+     * @return Path to its snapshot.
+     */
+    static String pathFor(String dbPath) {
+        return dbPath + ".snapshot";
+    }
+
+    /**
+     * Fills g from the snapshot at path, if it exists and is up to date with source.
+     * @param g A graph with no vertices yet.
+     * @param path Path to the snapshot.
+     * @param source The OSM XML file the snapshot should have been built from.
+     * @return true if g was loaded, false if the snapshot is missing, stale or corrupt.
+     */
+    static boolean load(GraphDB g, String path, File source) {
+        File file = new File(path);
+        if (!file.isFile()) {
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() < HEADER_BYTES) {
+                return false;
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION
+                    || buf.getLong() != source.length() || buf.getLong() != source.lastModified()) {
+                return false;
+            }
+            long payloadLength = buf.getLong();
+            long checksum = buf.getLong();
+            if (payloadLength != channel.size() - HEADER_BYTES) {
+                return false;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buf.duplicate());
+            if (crc.getValue() != checksum) {
+                return false;
+            }
+            readPayload(g, buf);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static void readPayload(GraphDB g, ByteBuffer buf) {
+        int n = buf.getInt();
+        int m = buf.getInt();
+        g.ids = new long[n];
+        buf.asLongBuffer().get(g.ids);
+        buf.position(buf.position() + 8 * n);
+        g.lons = new double[n];
+        buf.asDoubleBuffer().get(g.lons);
+        buf.position(buf.position() + 8 * n);
+        g.lats = new double[n];
+        buf.asDoubleBuffer().get(g.lats);
+        buf.position(buf.position() + 8 * n);
+        g.offsets = new int[n + 1];
+        buf.asIntBuffer().get(g.offsets);
+        buf.position(buf.position() + 4 * (n + 1));
+        g.targets = new int[m];
+        buf.asIntBuffer().get(g.targets);
+        buf.position(buf.position() + 4 * m);
+        g.edgeLengths = new float[m];
+        buf.asFloatBuffer().get(g.edgeLengths);
+        buf.position(buf.position() + 4 * m);
+
+        g.names = new String[n];
+        for (int v = 0; v < n; v++) {
+            g.names[v] = readString(buf);
+        }
+        g.linkedWays = new long[n][];
+        for (int v = 0; v < n; v++) {
+            g.linkedWays[v] = readLongs(buf);
+        }
+
+        int numWays = buf.getInt();
+        for (int i = 0; i < numWays; i++) {
+            GraphDB.Way way = new GraphDB.Way(buf.getLong());
+            way.valid = buf.get() != 0;
+            for (long node : readLongs(buf)) {
+                way.linkedNode.add(node);
+            }
+            int numTags = buf.getInt();
+            for (int j = 0; j < numTags; j++) {
+                way.extraInfo.put(readString(buf), readString(buf));
+            }
+            g.addWay(way);
+        }
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long[] readLongs(ByteBuffer buf) {
+        long[] values = new long[buf.getInt()];
+        buf.asLongBuffer().get(values);
+        buf.position(buf.position() + 8 * values.length);
+        return values;
+    }
+
+    /**
+     * Writes a snapshot of the frozen graph g to path. The file is written under a
+     * temporary name and then moved into place, so readers never see a partial snapshot.
+     * @param g A frozen graph.
+     * @param path Path to the snapshot.
+     * @param source The OSM XML file g was built from.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    static void save(GraphDB g, String path, File source) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writePayload(g, out);
+        out.flush();
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        File target = new File(path);
+        File tmp = new File(path + ".tmp");
+        try (DataOutputStream file = new DataOutputStream(new FileOutputStream(tmp))) {
+            file.writeInt(MAGIC);
+            file.writeInt(VERSION);
+            file.writeLong(source.length());
+            file.writeLong(source.lastModified());
+            file.writeLong(payload.length);
+            file.writeLong(crc.getValue());
+            file.write(payload);
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writePayload(GraphDB g, DataOutputStream out) throws IOException {
+        int n = g.ids.length;
+        out.writeInt(n);
+        out.writeInt(g.targets.length);
+        for (long id : g.ids) {
+            out.writeLong(id);
+        }
+        for (double lon : g.lons) {
+            out.writeDouble(lon);
+        }
+        for (double lat : g.lats) {
+            out.writeDouble(lat);
+        }
+        for (int offset : g.offsets) {
+            out.writeInt(offset);
+        }
+        for (int target : g.targets) {
+            out.writeInt(target);
+        }
+        for (float length : g.edgeLengths) {
+            out.writeFloat(length);
+        }
+
+        for (String name : g.names) {
+            writeString(out, name);
+        }
+        for (long[] ways : g.linkedWays) {
+            writeLongs(out, ways);
+        }
+
+        out.writeInt(g.ways.size());
+        for (GraphDB.Way way : g.ways.values()) {
+            out.writeLong(way.id);
+            out.writeByte(way.valid ? 1 : 0);
+            out.writeInt(way.linkedNode.size());
+            for (long node : way.linkedNode) {
+                out.writeLong(node);
+            }
+            List<Map.Entry<String, String>> tags = new ArrayList<>(way.extraInfo.entrySet());
+            out.writeInt(tags.size());
+            for (Map.Entry<String, String> tag : tags) {
+                writeString(out, tag.getKey());
+                writeString(out, tag.getValue());
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeLongs(DataOutputStream out, long[] values) throws IOException {
+        out.writeInt(values.length);
+        for (long value : values) {
+            out.writeLong(value);
+        }
+    }
+}
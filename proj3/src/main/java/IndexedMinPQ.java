@@ -0,0 +1,156 @@
+import java.util.NoSuchElementException;
+
+/**
+ * A 4-ary min heap over the integers 0..capacity-1 with double keys, supporting
+ * decrease-key. Used by the graph searches in Router, which key vertices by their
+ * dense GraphDB index.
+ *
+ * The heap never allocates after construction. clear() runs in constant time: a vertex
+ * is only considered present if its recorded position points back at it.
+ */
+public class IndexedMinPQ {
+    private static final int ARITY = 4;
+
+    /** heap[i] is the item at heap position i. */
+    private final int[] heap;
+    /** position[v] is the heap position of item v, valid only if heap[position[v]] == v. */
+    private final int[] position;
+    /** keys[v] is the key of item v while it is in the heap. */
+    private final double[] keys;
+    private int size;
+
+    /**
+     * Creates an empty heap for items in [0, capacity).
+     * @param capacity The number of distinct items.
+     */
+    public IndexedMinPQ(int capacity) {
+        heap = new int[capacity];
+        position = new int[capacity];
+        keys = new double[capacity];
+    }
+
+    /** Returns the number of distinct items this heap can hold. */
+    public int capacity() {
+        return heap.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Removes every item from the heap in constant time. */
+    public void clear() {
+        size = 0;
+    }
+
+    /** Returns true if item v is in the heap. */
+    public boolean contains(int v) {
+        int i = position[v];
+        return i < size && heap[i] == v;
+    }
+
+    /**
+     * Inserts item v with the given key, or lowers its key if it is already in the heap
+     * with a larger one. Does nothing if v is already present with a key at most key.
+     * @param v The item.
+     * @param key The new key.
+     */
+    public void insertOrDecrease(int v, double key) {
+        if (contains(v)) {
+            if (key < keys[v]) {
+                keys[v] = key;
+                siftUp(position[v]);
+            }
+        } else {
+            keys[v] = key;
+            heap[size] = v;
+            position[v] = size;
+            size++;
+            siftUp(size - 1);
+        }
+    }
+
+    /** Returns the smallest key in the heap. */
+    public double minKey() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return keys[heap[0]];
+    }
+
+    /** Returns the item with the smallest key without removing it. */
+    public int min() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return heap[0];
+    }
+
+    /** Removes and returns the item with the smallest key. */
+    public int deleteMin() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        int min = heap[0];
+        size--;
+        if (size > 0) {
+            heap[0] = heap[size];
+            position[heap[0]] = 0;
+            siftDown(0);
+        }
+        // Point min at a slot it no longer occupies, so contains(min) is false.
+        position[min] = size;
+        heap[size] = -1;
+        return min;
+    }
+
+    private void siftUp(int i) {
+        int v = heap[i];
+        double key = keys[v];
+        while (i > 0) {
+            int parent = (i - 1) / ARITY;
+            int p = heap[parent];
+            if (keys[p] <= key) {
+                break;
+            }
+            heap[i] = p;
+            position[p] = i;
+            i = parent;
+        }
+        heap[i] = v;
+        position[v] = i;
+    }
+
+    private void siftDown(int i) {
+        int v = heap[i];
+        double key = keys[v];
+        while (true) {
+            int first = ARITY * i + 1;
+            if (first >= size) {
+                break;
+            }
+            int last = Math.min(first + ARITY, size);
+            int best = first;
+            double bestKey = keys[heap[first]];
+            for (int c = first + 1; c < last; c++) {
+                double k = keys[heap[c]];
+                if (k < bestKey) {
+                    best = c;
+                    bestKey = k;
+                }
+            }
+            if (bestKey >= key) {
+                break;
+            }
+            heap[i] = heap[best];
+            position[heap[i]] = i;
+            i = best;
+        }
+        heap[i] = v;
+        position[v] = i;
+    }
+}
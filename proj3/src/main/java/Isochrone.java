@@ -0,0 +1,136 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Path2D;
+import java.util.Arrays;
+
+/**
+ * The vertices reachable from an origin within a distance budget, and a boundary polygon
+ * around them: the convex hull of their locations.
+ *
+ * Like RouteOverlay, an isochrone copies the coordinates it needs out of the graph, so it
+ * can be drawn over any number of rastered images.
+ */
+public class Isochrone {
+    /** The ids of the reachable vertices, nearest first. */
+    private final long[] ids;
+    /** The shortest-path distance to each of ids, in miles. */
+    private final double[] distances;
+    /** The corners of the boundary, counterclockwise, with no repeated last corner. */
+    private final double[] boundaryLons;
+    private final double[] boundaryLats;
+
+    /**
+     * Builds the isochrone of the first count vertices settled by a search.
+     * @param g The graph searched.
+     * @param order The dense indices of the settled vertices, nearest first.
+     * @param dists The distance to each of order.
+     * @param count How many of order are within the budget.
+     */
+    Isochrone(GraphDB g, int[] order, double[] dists, int count) {
+        ids = new long[count];
+        distances = Arrays.copyOf(dists, count);
+        double[][] points = new double[count][];
+        for (int i = 0; i < count; i++) {
+            ids[i] = g.ids[order[i]];
+            points[i] = new double[]{g.lons[order[i]], g.lats[order[i]]};
+        }
+        double[][] hull = convexHull(points);
+        boundaryLons = new double[hull.length];
+        boundaryLats = new double[hull.length];
+        for (int i = 0; i < hull.length; i++) {
+            boundaryLons[i] = hull[i][0];
+            boundaryLats[i] = hull[i][1];
+        }
+    }
+
+    /** Returns the ids of the reachable vertices, nearest first. */
+    public long[] vertices() {
+        return ids.clone();
+    }
+
+    /** Returns the shortest-path distance in miles to each of vertices(). */
+    public double[] distances() {
+        return distances.clone();
+    }
+
+    /**
+     * Returns the boundary polygon.
+     * @return The {longitude, latitude} of each corner, counterclockwise.
+     */
+    public double[][] boundary() {
+        double[][] corners = new double[boundaryLons.length][];
+        for (int i = 0; i < corners.length; i++) {
+            corners[i] = new double[]{boundaryLons[i], boundaryLats[i]};
+        }
+        return corners;
+    }
+
+    /** Returns true if nothing is reachable. */
+    public boolean isEmpty() {
+        return ids.length == 0;
+    }
+
+    /**
+     * Fills the boundary polygon on an image covering the given bounding box, with the
+     * graphics' current color, and outlines it with the current stroke in outlineColor.
+     * @param g2d The graphics of the image.
+     * @param ullon The upper left longitude of the image.
+     * @param ullat The upper left latitude of the image.
+     * @param lrlon The lower right longitude of the image.
+     * @param lrlat The lower right latitude of the image.
+     * @param width The width of the image in pixels.
+     * @param height The height of the image in pixels.
+     * @param outlineColor The color of the outline.
+     */
+    public void draw(Graphics2D g2d, double ullon, double ullat, double lrlon, double lrlat,
+                     int width, int height, Color outlineColor) {
+        if (boundaryLons.length == 0) {
+            return;
+        }
+        final double wdpp = (lrlon - ullon) / width;
+        final double hdpp = (ullat - lrlat) / height;
+        Path2D.Double path = new Path2D.Double(Path2D.WIND_NON_ZERO, boundaryLons.length);
+        path.moveTo((boundaryLons[0] - ullon) / wdpp, (ullat - boundaryLats[0]) / hdpp);
+        for (int i = 1; i < boundaryLons.length; i++) {
+            path.lineTo((boundaryLons[i] - ullon) / wdpp, (ullat - boundaryLats[i]) / hdpp);
+        }
+        path.closePath();
+        g2d.fill(path);
+        g2d.setColor(outlineColor);
+        g2d.draw(path);
+    }
+
+    /**
+     * Returns the convex hull of the points by Andrew's monotone chain.
+     * @param points Each {x, y}. The array is sorted in place.
+     * @return The corners of the hull, counterclockwise, without collinear points.
+     */
+    static double[][] convexHull(double[][] points) {
+        if (points.length < 3) {
+            return points.clone();
+        }
+        Arrays.sort(points, (a, b) -> a[0] != b[0] ? Double.compare(a[0], b[0])
+                : Double.compare(a[1], b[1]));
+        double[][] hull = new double[2 * points.length][];
+        int k = 0;
+        /* The lower hull left to right, then the upper hull right to left. */
+        for (int i = 0; i < points.length; i++) {
+            while (k >= 2 && cross(hull[k - 2], hull[k - 1], points[i]) <= 0) {
+                k--;
+            }
+            hull[k++] = points[i];
+        }
+        for (int i = points.length - 2, lower = k + 1; i >= 0; i--) {
+            while (k >= lower && cross(hull[k - 2], hull[k - 1], points[i]) <= 0) {
+                k--;
+            }
+            hull[k++] = points[i];
+        }
+        return Arrays.copyOf(hull, k - 1);
+    }
+
+    /** Returns the z component of (a - o) x (b - o); positive for a left turn. */
+    private static double cross(double[] o, double[] a, double[] b) {
+        return (a[0] - o[0]) * (b[1] - o[1]) - (a[1] - o[1]) * (b[0] - o[0]);
+    }
+}
@@ -0,0 +1,156 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Answers isochrone queries with a bounded Dijkstra search from the origin's closest
+ * vertex, keeping the settled vertices of the most recently used origins.
+ *
+ * A search that stops at radius r has settled, in order, exactly the vertices within r of
+ * the origin, so any later query from the same origin with a budget of at most r is just a
+ * prefix of that order, found with a binary search. A query with a larger budget searches
+ * again out to at least twice the old radius, so a client widening its budget step by step
+ * does few searches. All methods are thread-safe.
+ */
+public class IsochroneCache {
+    private final GraphDB g;
+    private final int maxTrees;
+    /** Access-ordered, so the eldest entry is the least recently used origin. */
+    private final LinkedHashMap<Integer, Tree> trees;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /** The vertices settled by a bounded search, nearest first. */
+    private static class Tree {
+        final int[] order;
+        final double[] dists;
+        /** Every vertex within radius has been settled; infinite if all reachable ones have. */
+        final double radius;
+
+        Tree(int[] order, double[] dists, double radius) {
+            this.order = order;
+            this.dists = dists;
+            this.radius = radius;
+        }
+
+        /** Returns how many settled vertices are within budget. */
+        int count(double budget) {
+            int lo = 0;
+            int hi = order.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (dists[mid] <= budget) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    /**
+     * Creates an empty cache.
+     * @param g The graph to search.
+     * @param maxTrees The most origins whose searches are kept.
+     */
+    public IsochroneCache(GraphDB g, int maxTrees) {
+        this.g = g;
+        this.maxTrees = maxTrees;
+        this.trees = new LinkedHashMap<Integer, Tree>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Tree> eldest) {
+                return size() > IsochroneCache.this.maxTrees;
+            }
+        };
+    }
+
+    /**
+     * Returns the vertices within a distance of the vertex closest to a location.
+     * @param lon The longitude of the origin.
+     * @param lat The latitude of the origin.
+     * @param budget The largest shortest-path distance to include, in miles.
+     * @return The isochrone, which is empty if the graph has no vertices.
+     * @throws IllegalArgumentException If budget is NaN, which would leave a search with no
+     *                                  radius in the cache.
+     */
+    public Isochrone get(double lon, double lat, double budget) {
+        if (Double.isNaN(budget)) {
+            throw new IllegalArgumentException("The budget must be a number.");
+        }
+        int origin = g.index(g.closest(lon, lat));
+        if (origin < 0) {
+            return new Isochrone(g, new int[0], new double[0], 0);
+        }
+        Tree tree;
+        synchronized (this) {
+            tree = trees.get(origin);
+        }
+        if (tree != null && budget <= tree.radius) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            double radius = tree == null ? budget : Math.max(budget, 2 * tree.radius);
+            tree = search(origin, radius);
+            synchronized (this) {
+                Tree cached = trees.get(origin);
+                if (cached == null || cached.radius < tree.radius) {
+                    trees.put(origin, tree);
+                }
+            }
+        }
+        return new Isochrone(g, tree.order, tree.dists, tree.count(budget));
+    }
+
+    /** Dijkstra from origin, settling every vertex within radius. */
+    private Tree search(int origin, double radius) {
+        SearchContext ctx = SearchContext.get(g);
+        IndexedMinPQ pq = ctx.pq;
+        ctx.update(origin, 0.0, -1);
+        pq.insertOrDecrease(origin, 0.0);
+        int[] order = new int[64];
+        double[] dists = new double[64];
+        int n = 0;
+
+        while (!pq.isEmpty() && pq.minKey() <= radius) {
+            int v = pq.deleteMin();
+            ctx.settled++;
+            double dist = ctx.distTo[v];
+            if (n == order.length) {
+                order = Arrays.copyOf(order, 2 * n);
+                dists = Arrays.copyOf(dists, 2 * n);
+            }
+            order[n] = v;
+            dists[n] = dist;
+            n++;
+            for (int e = g.offsets[v]; e < g.offsets[v + 1]; e++) {
+                int neigh = g.targets[e];
+                double newDist = dist + g.edgeLengths[e];
+                if (newDist < ctx.dist(neigh)) {
+                    ctx.update(neigh, newDist, v);
+                    pq.insertOrDecrease(neigh, newDist);
+                }
+            }
+        }
+        /* With nothing left to settle, every budget is answered by this search. */
+        return new Tree(Arrays.copyOf(order, n), Arrays.copyOf(dists, n),
+                pq.isEmpty() ? Double.POSITIVE_INFINITY : radius);
+    }
+
+    /** Returns the number of origins whose searches are kept. */
+    public synchronized int size() {
+        return trees.size();
+    }
+
+    /** Returns the number of queries answered from a kept search. */
+    public long hits() {
+        return hits.get();
+    }
+
+    /** Returns the number of queries that needed a new search. */
+    public long misses() {
+        return misses.get();
+    }
+}
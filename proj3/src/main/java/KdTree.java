@@ -0,0 +1,279 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A static 2-d tree over a fixed set of (lon, lat) points, used by GraphDB to answer
+ * nearest-neighbor and bounding box queries without scanning every vertex.
+ *
+ * The tree is stored implicitly: points are permuted so that the median of every
+ * subrange is the splitting point for that subrange, alternating between longitude
+ * (even depths) and latitude (odd depths). Points are referred to by their index into
+ * the coordinate arrays given to the constructor.
+ *
+ * Distances are great-circle distances as computed by GraphDB.distance, so the results
+ * always agree with a linear scan. Pruning uses exact lower bounds on the great-circle
+ * distance from the query point to the splitting meridian or parallel.
+ */
+public class KdTree {
+    /** Radius of the earth in miles, matching GraphDB.distance. */
+    private static final double EARTH_RADIUS = 3963;
+
+    private final double[] lons;
+    private final double[] lats;
+    /** Point indices, arranged so that every subrange [lo, hi) is split at its middle. */
+    private final int[] order;
+
+    /**
+     * Builds a tree over the points (lons[i], lats[i]). The arrays are not copied and
+     * must not be modified afterwards.
+     * @param lons The longitudes of the points.
+     * @param lats The latitudes of the points.
+     */
+    public KdTree(double[] lons, double[] lats) {
+        this.lons = lons;
+        this.lats = lats;
+        this.order = new int[lons.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        build(0, order.length, 0);
+    }
+
+    /** Number of points in the tree. */
+    public int size() {
+        return order.length;
+    }
+
+    private void build(int lo, int hi, int depth) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, depth & 1);
+        build(lo, mid, depth + 1);
+        build(mid + 1, hi, depth + 1);
+    }
+
+    private double coord(int point, int axis) {
+        return axis == 0 ? lons[point] : lats[point];
+    }
+
+    /** Quickselect: places the k-th smallest point on the given axis at position k. */
+    private void select(int lo, int hi, int k, int axis) {
+        while (hi > lo) {
+            double pivot = coord(order[(lo + hi) >>> 1], axis);
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (coord(order[i], axis) < pivot) {
+                    i++;
+                }
+                while (coord(order[j], axis) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Lower bound on the great-circle distance from (lon, lat) to any point on the other
+     * side of the splitting line through the given point.
+     */
+    private double splitDistance(double lon, double lat, int point, int axis) {
+        if (axis == 0) {
+            double dlambda = Math.toRadians(Math.abs(lon - lons[point]));
+            if (dlambda >= Math.PI / 2) {
+                return 0;
+            }
+            double s = Math.sin(dlambda) * Math.cos(Math.toRadians(lat));
+            return EARTH_RADIUS * Math.asin(Math.min(1.0, Math.abs(s)));
+        }
+        return EARTH_RADIUS * Math.toRadians(Math.abs(lat - lats[point]));
+    }
+
+    /**
+     * Returns the index of the point closest to (lon, lat), or -1 if the tree is empty.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @return The index of the nearest point.
+     */
+    public int nearest(double lon, double lat) {
+        if (order.length == 0) {
+            return -1;
+        }
+        Neighbors best = new Neighbors(1);
+        nearest(lon, lat, 0, order.length, 0, best);
+        return best.points[0];
+    }
+
+    /**
+     * Returns the indices of the k points closest to (lon, lat), nearest first.
+     * Returns fewer than k indices if the tree has fewer than k points.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param k The number of neighbors to find.
+     * @return The indices of the nearest points, in increasing order of distance.
+     */
+    public int[] nearest(double lon, double lat, int k) {
+        k = Math.min(k, order.length);
+        if (k <= 0) {
+            return new int[0];
+        }
+        Neighbors best = new Neighbors(k);
+        nearest(lon, lat, 0, order.length, 0, best);
+        return best.sorted();
+    }
+
+    private void nearest(double lon, double lat, int lo, int hi, int depth, Neighbors best) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        int point = order[mid];
+        int axis = depth & 1;
+        best.offer(point, GraphDB.distance(lon, lat, lons[point], lats[point]));
+
+        boolean goLeft = (axis == 0 ? lon : lat) < coord(point, axis);
+        if (goLeft) {
+            nearest(lon, lat, lo, mid, depth + 1, best);
+        } else {
+            nearest(lon, lat, mid + 1, hi, depth + 1, best);
+        }
+        if (splitDistance(lon, lat, point, axis) <= best.bound()) {
+            if (goLeft) {
+                nearest(lon, lat, mid + 1, hi, depth + 1, best);
+            } else {
+                nearest(lon, lat, lo, mid, depth + 1, best);
+            }
+        }
+    }
+
+    /**
+     * Returns the indices of all points inside the given bounding box, in no particular order.
+     * @param ullon The upper left longitude of the box.
+     * @param ullat The upper left latitude of the box.
+     * @param lrlon The lower right longitude of the box.
+     * @param lrlat The lower right latitude of the box.
+     * @return The indices of the points within the box.
+     */
+    public List<Integer> range(double ullon, double ullat, double lrlon, double lrlat) {
+        List<Integer> result = new ArrayList<>();
+        range(ullon, ullat, lrlon, lrlat, 0, order.length, 0, result);
+        return result;
+    }
+
+    private void range(double ullon, double ullat, double lrlon, double lrlat,
+                       int lo, int hi, int depth, List<Integer> result) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        int point = order[mid];
+        double lon = lons[point];
+        double lat = lats[point];
+        if (lon >= ullon && lon <= lrlon && lat <= ullat && lat >= lrlat) {
+            result.add(point);
+        }
+        double split = coord(point, depth & 1);
+        double min = (depth & 1) == 0 ? ullon : lrlat;
+        double max = (depth & 1) == 0 ? lrlon : ullat;
+        if (min <= split) {
+            range(ullon, ullat, lrlon, lrlat, lo, mid, depth + 1, result);
+        }
+        if (max >= split) {
+            range(ullon, ullat, lrlon, lrlat, mid + 1, hi, depth + 1, result);
+        }
+    }
+
+    /** Bounded max-heap of the k best candidates seen so far. */
+    private static class Neighbors {
+        final int[] points;
+        final double[] dists;
+        int size;
+
+        Neighbors(int k) {
+            points = new int[k];
+            dists = new double[k];
+        }
+
+        double bound() {
+            return size < points.length ? Double.POSITIVE_INFINITY : dists[0];
+        }
+
+        void offer(int point, double dist) {
+            if (size < points.length) {
+                int i = size++;
+                while (i > 0 && dists[(i - 1) / 2] < dist) {
+                    points[i] = points[(i - 1) / 2];
+                    dists[i] = dists[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                points[i] = point;
+                dists[i] = dist;
+            } else if (dist < dists[0]) {
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && dists[child + 1] > dists[child]) {
+                        child++;
+                    }
+                    if (dists[child] <= dist) {
+                        break;
+                    }
+                    points[i] = points[child];
+                    dists[i] = dists[child];
+                    i = child;
+                }
+                points[i] = point;
+                dists[i] = dist;
+            }
+        }
+
+        /** Empties the heap, returning its points nearest first. */
+        int[] sorted() {
+            int[] result = new int[size];
+            while (size > 0) {
+                result[size - 1] = points[0];
+                int last = --size;
+                int lastPoint = points[last];
+                double lastDist = dists[last];
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && dists[child + 1] > dists[child]) {
+                        child++;
+                    }
+                    if (dists[child] <= lastDist) {
+                        break;
+                    }
+                    points[i] = points[child];
+                    dists[i] = dists[child];
+                    i = child;
+                }
+                points[i] = lastPoint;
+                dists[i] = lastDist;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Landmark distances for the ALT (A*, landmarks, triangle inequality) heuristic.
+ *
+ * A handful of landmark vertices spread around the edge of the map are chosen, and the
+ * shortest path distance from every landmark to every vertex is precomputed with
+ * Dijkstra's algorithm, one landmark per thread. Since roads are two-way, for any
+ * landmark L the triangle inequality gives |d(L, t) - d(L, v)| as a lower bound on
+ * d(v, t). These bounds follow the road network around obstacles such as the hills and
+ * the bay, so they are much tighter than the straight-line distance.
+ */
+public class Landmarks {
+    /** Number of landmarks used when none is configured. */
+    public static final int DEFAULT_COUNT = 8;
+
+    private final int count;
+    /** The dense indices of the landmark vertices. */
+    private final int[] landmarks;
+    /** dist[v * count + i] is the distance from landmark i to v, or infinity. */
+    private final double[] dist;
+
+    private Landmarks(int[] landmarks, double[] dist) {
+        this.count = landmarks.length;
+        this.landmarks = landmarks;
+        this.dist = dist;
+    }
+
+    /**
+     * Chooses count landmarks in g and computes their distances to every vertex.
+     * @param g The graph.
+     * @param count The number of landmarks, at least 1.
+     * @return The landmark distances for g.
+     */
+    public static Landmarks build(GraphDB g, int count) {
+        int n = g.size();
+        int[] landmarks = choose(g, Math.min(count, n));
+        int k = landmarks.length;
+        double[] dist = new double[n * k];
+        IntStream.range(0, k).parallel().forEach(i -> {
+            double[] fromLandmark = dijkstra(g, landmarks[i]);
+            for (int v = 0; v < n; v++) {
+                dist[v * k + i] = fromLandmark[v];
+            }
+        });
+        return new Landmarks(landmarks, dist);
+    }
+
+    /**
+     * Farthest point selection by great-circle distance: start with the vertex farthest
+     * from the centre of the map, then repeatedly add the vertex farthest from all the
+     * landmarks chosen so far. This places the landmarks around the boundary of the map.
+     */
+    private static int[] choose(GraphDB g, int count) {
+        int n = g.size();
+        if (n == 0) {
+            return new int[0];
+        }
+        double centerLon = 0;
+        double centerLat = 0;
+        for (int v = 0; v < n; v++) {
+            centerLon += g.lons[v] / n;
+            centerLat += g.lats[v] / n;
+        }
+        double[] nearest = new double[n];
+        for (int v = 0; v < n; v++) {
+            nearest[v] = GraphDB.distance(centerLon, centerLat, g.lons[v], g.lats[v]);
+        }
+
+        int[] chosen = new int[count];
+        for (int i = 0; i < count; i++) {
+            int farthest = 0;
+            for (int v = 1; v < n; v++) {
+                if (nearest[v] > nearest[farthest]) {
+                    farthest = v;
+                }
+            }
+            chosen[i] = farthest;
+            for (int v = 0; v < n; v++) {
+                double d = GraphDB.distance(g.lons[farthest], g.lats[farthest],
+                        g.lons[v], g.lats[v]);
+                nearest[v] = i == 0 ? d : Math.min(nearest[v], d);
+            }
+        }
+        return chosen;
+    }
+
+    /** Shortest path distances from source to every vertex of g. */
+    private static double[] dijkstra(GraphDB g, int source) {
+        SearchContext ctx = new SearchContext(g.size());
+        ctx.update(source, 0.0, -1);
+        ctx.pq.insertOrDecrease(source, 0.0);
+        while (!ctx.pq.isEmpty()) {
+            int v = ctx.pq.deleteMin();
+            double d = ctx.distTo[v];
+            for (int e = g.offsets[v]; e < g.offsets[v + 1]; e++) {
+                int w = g.targets[e];
+                double newDist = d + g.edgeLengths[e];
+                if (newDist < ctx.dist(w)) {
+                    ctx.update(w, newDist, v);
+                    ctx.pq.insertOrDecrease(w, newDist);
+                }
+            }
+        }
+        double[] result = new double[g.size()];
+        for (int v = 0; v < result.length; v++) {
+            result[v] = ctx.dist(v);
+        }
+        return result;
+    }
+
+    /** Returns the number of landmarks. */
+    public int count() {
+        return count;
+    }
+
+    /** Returns the dense indices of the landmark vertices. */
+    public int[] landmarks() {
+        return Arrays.copyOf(landmarks, count);
+    }
+
+    /**
+     * Returns a lower bound on the shortest path distance between v and t. Landmarks that
+     * cannot reach both vertices are ignored.
+     * @param v The dense index of the first vertex.
+     * @param t The dense index of the second vertex.
+     * @return The largest landmark lower bound, or 0 if there is none.
+     */
+    public double lowerBound(int v, int t) {
+        double bound = 0;
+        int vi = v * count;
+        int ti = t * count;
+        for (int i = 0; i < count; i++) {
+            double b = Math.abs(dist[ti + i] - dist[vi + i]);
+            if (b > bound && b != Double.POSITIVE_INFINITY) {
+                bound = b;
+            }
+        }
+        return bound;
+    }
+}
@@ -0,0 +1,296 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class provides a main method for load testing MapServer by replaying a log of
+ * recorded requests, such as /raster, /route and /search queries, against it over HTTP.
+ * It prints the throughput, the error rate and the 50th, 99th and 99.9th percentile
+ * latency of each endpoint and of all requests together.
+ *
+ * Each line of the log holds one request: its path and query, such as
+ * /route?start_lon=-122.26&start_lat=37.87&end_lon=-122.25&end_lat=37.86, optionally
+ * preceded by the time it was made in milliseconds. In access log lines the first field
+ * that starts with a / is taken as the request. Blank lines and lines starting with # are
+ * skipped.
+ *
+ * By default every thread sends its next request as soon as its last one is answered. With
+ * -rate, requests are started at a fixed rate instead, and with -speed, at their recorded
+ * times sped up by the given factor. Paced latencies are measured from when each request
+ * should have started, so requests delayed by a busy server count as slow.
+ *
+ * Usage: LoadTest [-url URL] [-threads N] [-rate R | -speed X] [-requests N] [-warmup N]
+ *                 [-start] log
+ *   -url       The server, by default http://localhost:4567.
+ *   -threads   Requests in flight at once, by default 8.
+ *   -rate      Requests started per second.
+ *   -speed     How many times faster than recorded to replay a timed log.
+ *   -requests  How many requests to time, repeating the log if needed; by default the
+ *              length of the log.
+ *   -warmup    How many requests to send unpaced and untimed first, by default 0.
+ *   -start     Start MapServer in this JVM first, which then shares its CPUs.
+ */
+public class LoadTest {
+    private static final String DEFAULT_URL = "http://localhost:4567";
+    private static final int DEFAULT_THREADS = 8;
+    private static final int TIMEOUT_MS = 60000;
+    private static final double[] PERCENTILES = {0.5, 0.99, 0.999};
+
+    /** The requests to send, in order, and when to start them. */
+    private static class Plan {
+        final String[] paths;
+        /** The start time of each request in nanoseconds after the first, or null. */
+        final long[] offsets;
+
+        Plan(String[] paths, long[] offsets) {
+            this.paths = paths;
+            this.offsets = offsets;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = DEFAULT_URL;
+        int threads = DEFAULT_THREADS;
+        double rate = 0;
+        double speed = 0;
+        int requests = -1;
+        int warmup = 0;
+        boolean start = false;
+        String log = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-url":
+                    url = args[++i];
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[++i]);
+                    if (threads < 1) {
+                        System.out.println("-threads must be at least 1");
+                        return;
+                    }
+                    break;
+                case "-rate":
+                    rate = Double.parseDouble(args[++i]);
+                    break;
+                case "-speed":
+                    speed = Double.parseDouble(args[++i]);
+                    break;
+                case "-requests":
+                    requests = Integer.parseInt(args[++i]);
+                    if (requests < 1) {
+                        System.out.println("-requests must be at least 1");
+                        return;
+                    }
+                    break;
+                case "-warmup":
+                    warmup = Integer.parseInt(args[++i]);
+                    break;
+                case "-start":
+                    start = true;
+                    break;
+                default:
+                    log = args[i];
+            }
+        }
+        if (log == null) {
+            System.out.println("Usage: LoadTest [-url URL] [-threads N] [-rate R | -speed X]"
+                    + " [-requests N] [-warmup N] [-start] log");
+            return;
+        }
+
+        List<String> paths = new ArrayList<>();
+        List<Long> times = new ArrayList<>();
+        readLog(log, paths, times);
+        if (paths.isEmpty()) {
+            System.out.println("No requests in " + log);
+            return;
+        }
+        if (speed > 0 && times.size() < paths.size()) {
+            System.out.println("-speed needs a time on every line of " + log);
+            return;
+        }
+        if (start) {
+            MapServer.main(new String[0]);
+            spark.Spark.awaitInitialization();
+        }
+        if (warmup > 0) {
+            run(url, plan(paths, times, warmup, 0, 0), threads, new long[warmup],
+                    new boolean[warmup]);
+        }
+
+        Plan plan = plan(paths, times, requests < 0 ? paths.size() : requests, rate, speed);
+        int n = plan.paths.length;
+        long[] latencies = new long[n];
+        boolean[] ok = new boolean[n];
+        long elapsed = run(url, plan, threads, latencies, ok);
+        System.out.println(String.format("%d requests from %d threads in %.1f s, %s",
+                n, threads, elapsed / 1e9, rate > 0 ? rate + " requests/s"
+                        : speed > 0 ? speed + "x recorded speed" : "unpaced"));
+        report(plan, latencies, ok, elapsed);
+        if (start) {
+            spark.Spark.stop();
+        }
+    }
+
+    /** Reads the requests of a log, and their times where given, in milliseconds. */
+    private static void readLog(String log, List<String> paths, List<Long> times)
+            throws IOException {
+        for (String line : Files.readAllLines(Paths.get(log), Charset.defaultCharset())) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            for (String field : fields) {
+                if (field.startsWith("/")) {
+                    paths.add(field);
+                    if (fields[0].matches("\\d+")) {
+                        times.add(Long.parseLong(fields[0]));
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Lays out n requests from the log, repeating it as needed. Paced with speed, each
+     * repetition of the log starts one average gap after the last one ended.
+     */
+    private static Plan plan(List<String> paths, List<Long> times, int n, double rate,
+                             double speed) {
+        String[] planned = new String[n];
+        long[] offsets = rate > 0 || speed > 0 ? new long[n] : null;
+        int size = paths.size();
+        long span = speed > 0 ? times.get(size - 1) - times.get(0) : 0;
+        double period = size > 1 ? span + (double) span / (size - 1) : 1;
+        for (int i = 0; i < n; i++) {
+            planned[i] = paths.get(i % size);
+            if (rate > 0) {
+                offsets[i] = (long) (i * 1e9 / rate);
+            } else if (speed > 0) {
+                double ms = (i / size) * period + times.get(i % size) - times.get(0);
+                offsets[i] = (long) (ms * 1e6 / speed);
+            }
+        }
+        return new Plan(planned, offsets);
+    }
+
+    /**
+     * Sends the requests of plan from the given number of threads, recording the latency
+     * of each in nanoseconds and whether it succeeded.
+     * @return The time from the first request starting to the last one ending.
+     */
+    private static long run(String url, Plan plan, int threads, long[] latencies,
+                            boolean[] ok) throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        long start = System.nanoTime();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                byte[] buffer = new byte[64 * 1024];
+                for (int i = next.getAndIncrement(); i < plan.paths.length;
+                     i = next.getAndIncrement()) {
+                    long begin;
+                    if (plan.offsets == null) {
+                        begin = System.nanoTime();
+                    } else {
+                        begin = start + plan.offsets[i];
+                        for (long wait = begin - System.nanoTime(); wait > 0;
+                             wait = begin - System.nanoTime()) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    }
+                    ok[i] = send(url + plan.paths[i], buffer);
+                    latencies[i] = System.nanoTime() - begin;
+                }
+            }, "load-" + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Sends one GET request and reads the whole response.
+     * @return True if the response status was 2xx.
+     */
+    private static boolean send(String url, byte[] buffer) {
+        try {
+            HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+            conn.setConnectTimeout(TIMEOUT_MS);
+            conn.setReadTimeout(TIMEOUT_MS);
+            int status = conn.getResponseCode();
+            /* Reading the body to the end lets the connection be reused. */
+            InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+            if (in != null) {
+                while (in.read(buffer) >= 0) {
+                    continue;
+                }
+                in.close();
+            }
+            return status / 100 == 2;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Prints a line of results for each endpoint, such as /route, and one for all. */
+    private static void report(Plan plan, long[] latencies, boolean[] ok, long elapsed) {
+        Map<String, List<Integer>> byEndpoint = new TreeMap<>();
+        List<Integer> all = new ArrayList<>();
+        for (int i = 0; i < plan.paths.length; i++) {
+            String path = plan.paths[i];
+            int end = path.length();
+            for (char c : new char[]{'?', '/'}) {
+                int at = path.indexOf(c, 1);
+                if (at >= 0 && at < end) {
+                    end = at;
+                }
+            }
+            byEndpoint.computeIfAbsent(path.substring(0, end), k -> new ArrayList<>()).add(i);
+            all.add(i);
+        }
+        System.out.println(String.format("%-14s %8s %8s %10s %9s %9s %9s %9s", "endpoint",
+                "requests", "errors %", "requests/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+        for (Map.Entry<String, List<Integer>> e : byEndpoint.entrySet()) {
+            reportLine(e.getKey(), e.getValue(), latencies, ok, elapsed);
+        }
+        reportLine("all", all, latencies, ok, elapsed);
+    }
+
+    private static void reportLine(String name, List<Integer> requests, long[] latencies,
+                                   boolean[] ok, long elapsed) {
+        long[] sorted = new long[requests.size()];
+        int errors = 0;
+        for (int j = 0; j < sorted.length; j++) {
+            int i = requests.get(j);
+            sorted[j] = latencies[i];
+            if (!ok[i]) {
+                errors++;
+            }
+        }
+        Arrays.sort(sorted);
+        StringBuilder sb = new StringBuilder(String.format("%-14s %8d %7.2f%% %10.1f", name,
+                sorted.length, 100.0 * errors / sorted.length, sorted.length / (elapsed / 1e9)));
+        for (double p : PERCENTILES) {
+            int rank = (int) Math.ceil(p * sorted.length) - 1;
+            sb.append(String.format(" %9.2f", sorted[Math.max(0, rank)] / 1e6));
+        }
+        sb.append(String.format(" %9.2f", sorted[sorted.length - 1] / 1e6));
+        System.out.println(sb);
+    }
+}
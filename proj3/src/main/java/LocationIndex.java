@@ -0,0 +1,157 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * An immutable index of the named vertices of a graph, for /search.
+ *
+ * Every distinct name is stored once, sorted by its GraphDB.cleanString form, along with the
+ * vertices that carry it. The names that start with a cleaned prefix form a contiguous
+ * range of that order, found with two binary searches; the names equal to a cleaned name
+ * are the range for that name plus nothing longer.
+ */
+public class LocationIndex {
+    /** The cleaned form of each name, in sorted order. */
+    private final String[] cleaned;
+    /** The names, in the order of cleaned. */
+    private final String[] names;
+    /** The vertices named names[i] are vertices[starts[i]] through vertices[starts[i + 1] - 1]. */
+    private final int[] starts;
+    private final int[] vertices;
+
+    private final long[] ids;
+    private final double[] lons;
+    private final double[] lats;
+
+    /**
+     * Indexes the named vertices.
+     * @param ids The id of each vertex.
+     * @param lons The longitude of each vertex.
+     * @param lats The latitude of each vertex.
+     * @param vertexNames The name of each vertex, or null if it has none.
+     */
+    LocationIndex(long[] ids, double[] lons, double[] lats, String[] vertexNames) {
+        this.ids = ids;
+        this.lons = lons;
+        this.lats = lats;
+
+        Map<String, List<Integer>> byName = new HashMap<>();
+        for (int v = 0; v < vertexNames.length; v++) {
+            if (vertexNames[v] != null) {
+                byName.computeIfAbsent(vertexNames[v], k -> new ArrayList<>()).add(v);
+            }
+        }
+        String[][] sorted = new String[byName.size()][];
+        int i = 0;
+        for (String name : byName.keySet()) {
+            sorted[i++] = new String[]{GraphDB.cleanString(name), name};
+        }
+        Arrays.sort(sorted, Comparator.<String[], String>comparing(e -> e[0])
+                .thenComparing(e -> e[1]));
+
+        cleaned = new String[sorted.length];
+        names = new String[sorted.length];
+        starts = new int[sorted.length + 1];
+        List<Integer> all = new ArrayList<>();
+        for (i = 0; i < sorted.length; i++) {
+            cleaned[i] = sorted[i][0];
+            names[i] = sorted[i][1];
+            all.addAll(byName.get(names[i]));
+            starts[i + 1] = all.size();
+        }
+        vertices = new int[all.size()];
+        for (i = 0; i < vertices.length; i++) {
+            vertices[i] = all.get(i);
+        }
+    }
+
+    /**
+     * Indexes the named vertices of g.
+     * @param g The graph.
+     * @return The index.
+     */
+    public static LocationIndex of(GraphDB g) {
+        return new LocationIndex(g.ids, g.lons, g.lats, g.names);
+    }
+
+    /** Returns the number of distinct names. */
+    public int size() {
+        return names.length;
+    }
+
+    /** Returns the first index i such that cleaned[i] >= key. */
+    private int lowerBound(String key) {
+        int lo = 0;
+        int hi = cleaned.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cleaned[mid].compareTo(key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the names whose cleaned form starts with the cleaned prefix. The names carried
+     * by the most vertices come first, then shorter names, then in alphabetical order.
+     * @param prefix The prefix, in any case and with or without punctuation.
+     * @param limit The most names to return.
+     * @return At most limit names, best first.
+     */
+    public List<String> complete(String prefix, int limit) {
+        String key = GraphDB.cleanString(prefix);
+        int lo = lowerBound(key);
+        int hi = lowerBound(key + Character.MAX_VALUE);
+        Comparator<Integer> better = Comparator
+                .<Integer>comparingInt(i -> starts[i] - starts[i + 1])
+                .thenComparingInt(i -> names[i].length())
+                .thenComparingInt(i -> i);
+        /* Keep the best limit names in a heap whose root is the worst of them. */
+        PriorityQueue<Integer> best = new PriorityQueue<>(Math.max(1, limit), better.reversed());
+        for (int i = lo; i < hi && limit > 0; i++) {
+            if (best.size() < limit) {
+                best.add(i);
+            } else if (better.compare(i, best.peek()) < 0) {
+                best.poll();
+                best.add(i);
+            }
+        }
+        List<String> result = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            result.add(names[best.poll()]);
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Returns every vertex whose cleaned name equals the cleaned locationName.
+     * @param locationName The name, in any case and with or without punctuation.
+     * @return For each vertex, a map with its "lat", "lon", "name" and "id".
+     */
+    public List<Map<String, Object>> lookup(String locationName) {
+        String key = GraphDB.cleanString(locationName);
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (int i = lowerBound(key); i < cleaned.length && cleaned[i].equals(key); i++) {
+            for (int j = starts[i]; j < starts[i + 1]; j++) {
+                int v = vertices[j];
+                Map<String, Object> location = new LinkedHashMap<>();
+                location.put("lat", lats[v]);
+                location.put("lon", lons[v]);
+                location.put("name", names[i]);
+                location.put("id", ids[v]);
+                result.add(location);
+            }
+        }
+        return result;
+    }
+}
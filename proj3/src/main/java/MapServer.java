@@ -4,9 +4,18 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.ToLongFunction;
 import java.awt.image.BufferedImage;
-import javax.imageio.ImageIO;
 import java.io.IOException;
 
 
@@ -26,26 +35,108 @@ import static spark.Spark.*;
 public class MapServer {
     /**
      * The root upper left/lower right longitudes and latitudes represent the bounding box of
-     * the root tile, as the images in the img/ folder are scraped.
+     * the root tile of the Berkeley map, Region.BERKELEY, as its images are scraped.
      * Longitude == x-axis; latitude == y-axis.
      */
     public static final double ROOT_ULLAT = 37.892195547244356, ROOT_ULLON = -122.2998046875,
             ROOT_LRLAT = 37.82280243352756, ROOT_LRLON = -122.2119140625;
     /** Each tile is 256x256 pixels. */
     public static final int TILE_SIZE = 256;
+    /** HTTP response for tiles that are sent. */
+    private static final int OK_RESPONSE = 200;
     /** HTTP failed response. */
     private static final int HALT_RESPONSE = 403;
+    /** HTTP response for tiles that do not exist. */
+    private static final int NOT_FOUND_RESPONSE = 404;
+    /** HTTP response for tiles the client already has. */
+    private static final int NOT_MODIFIED_RESPONSE = 304;
+    /** Tiles never change while the server runs, so browsers may keep them for a day. */
+    private static final String TILE_CACHE_CONTROL = "public, max-age=86400";
     /** Route stroke information: typically roads are not more than 5px wide. */
     public static final float ROUTE_STROKE_WIDTH_PX = 5.0f;
     /** Route stroke information: Cyan with half transparency. */
     public static final Color ROUTE_STROKE_COLOR = new Color(108, 181, 230, 200);
-    /** The tile images are in the IMG_ROOT folder. */
-    private static final String IMG_ROOT = "../library-sp18/data/proj3_imgs/";
+    /** Isochrone information: an orange outline around a mostly transparent orange area. */
+    public static final float ISOCHRONE_STROKE_WIDTH_PX = 2.0f;
+    public static final Color ISOCHRONE_STROKE_COLOR = new Color(230, 145, 56, 200);
+    public static final Color ISOCHRONE_FILL_COLOR = new Color(230, 145, 56, 60);
     /**
-     * The OSM XML file path. Downloaded from <a href="http://download.bbbike.org/osm/">here</a>
-     * using custom region selection.
-     **/
-    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+     * The Json file of the regions to serve, set with -Dbearmaps.regions=FILE and described
+     * in Region.load. Without it, only the Berkeley map, Region.BERKELEY, is served.
+     */
+    private static final String REGIONS_FILE = System.getProperty("bearmaps.regions");
+    /**
+     * The regions whose graph and tiles are loaded at startup, set with
+     * -Dbearmaps.preloadRegions=NAME,NAME. By default only the first region is; the others
+     * are loaded when a request first needs them. Use an empty list to load none.
+     */
+    private static final String PRELOAD_REGIONS = System.getProperty("bearmaps.preloadRegions");
+    /** Where the contraction hierarchy of a region's graph is cached between runs. */
+    private static final String CH_CACHE_SUFFIX = ".ch";
+    /**
+     * The Router strategy used for /route, set with -Dbearmaps.router=NAME where NAME is
+     * one of the Router.Strategy constants.
+     */
+    private static final Router.Strategy ROUTER_STRATEGY =
+            Router.Strategy.valueOf(System.getProperty("bearmaps.router", "ASTAR"));
+    /**
+     * What /route minimizes, set with -Dbearmaps.routeWeight=NAME where NAME is one of the
+     * Router.Weight constants. TRAVEL_TIME needs the ASTAR or BIDIRECTIONAL_ASTAR strategy.
+     */
+    private static final Router.Weight ROUTE_WEIGHT =
+            Router.Weight.valueOf(System.getProperty("bearmaps.routeWeight", "DISTANCE"));
+    /** Number of landmarks for the ALT strategy, set with -Dbearmaps.landmarks=N. */
+    private static final int NUM_LANDMARKS =
+            Integer.getInteger("bearmaps.landmarks", Landmarks.DEFAULT_COUNT);
+    /**
+     * Megabytes of decoded tiles to keep in memory for each region whose tiles are loaded,
+     * set with -Dbearmaps.tileCacheMB=N.
+     */
+    private static final long TILE_CACHE_BYTES =
+            Long.getLong("bearmaps.tileCacheMB", 256) * 1024 * 1024;
+    /**
+     * Tiles down to this depth are decoded into a region's tile cache when its tiles are
+     * loaded, set with -Dbearmaps.tileWarmDepth=N. Use -1 to skip the warm-up.
+     */
+    private static final int TILE_WARM_DEPTH = Integer.getInteger("bearmaps.tileWarmDepth", 3);
+    /** Threads used to decode and draw the tiles of /raster images, -Dbearmaps.rasterThreads=N. */
+    private static final int RASTER_THREADS = Integer.getInteger("bearmaps.rasterThreads",
+            Runtime.getRuntime().availableProcessors());
+    /**
+     * Image format of /raster responses, set with -Dbearmaps.rasterFormat=png or jpeg. PNG
+     * images use deflate level -Dbearmaps.pngLevel=0..9 (lower is faster but larger), and
+     * JPEG images use quality -Dbearmaps.jpegQuality=0..1.
+     */
+    private static final String RASTER_FORMAT = System.getProperty("bearmaps.rasterFormat", "png");
+    private static final int PNG_LEVEL =
+            Integer.getInteger("bearmaps.pngLevel", RasterEncoder.DEFAULT_PNG_LEVEL);
+    private static final float JPEG_QUALITY = Float.parseFloat(System.getProperty(
+            "bearmaps.jpegQuality", String.valueOf(RasterEncoder.DEFAULT_JPEG_QUALITY)));
+    /** Encoding buffers that grow past this many bytes are not kept for the next request. */
+    private static final int MAX_REUSED_BUFFER_BYTES = 8 * 1024 * 1024;
+    /** Most names returned by a prefix /search, set with -Dbearmaps.searchLimit=N. */
+    private static final int SEARCH_LIMIT = Integer.getInteger("bearmaps.searchLimit", 10);
+    /**
+     * Most routes kept for clients at once, set with -Dbearmaps.maxRoutes=N, and how long a
+     * route is kept after its last use, set with -Dbearmaps.routeTtlSeconds=N.
+     */
+    private static final int MAX_ROUTES = Integer.getInteger("bearmaps.maxRoutes", 1000);
+    private static final long ROUTE_TTL_SECONDS = Long.getLong("bearmaps.routeTtlSeconds", 1800);
+    /**
+     * Threads used for the searches of /route_matrix requests, set with
+     * -Dbearmaps.matrixThreads=N, and the most sources or targets one request may have, set
+     * with -Dbearmaps.maxMatrixPoints=N.
+     */
+    private static final int MATRIX_THREADS = Integer.getInteger("bearmaps.matrixThreads",
+            Runtime.getRuntime().availableProcessors());
+    private static final int MAX_MATRIX_POINTS = Integer.getInteger("bearmaps.maxMatrixPoints",
+            100);
+    /** Origins whose isochrone searches are kept, set with -Dbearmaps.isochroneOrigins=N. */
+    private static final int ISOCHRONE_ORIGINS = Integer.getInteger("bearmaps.isochroneOrigins",
+            64);
+    /** Megabytes of encoded /raster images to keep, set with -Dbearmaps.rasterCacheMB=N. */
+    private static final long RASTER_CACHE_BYTES =
+            Long.getLong("bearmaps.rasterCacheMB", 64) * 1024 * 1024;
     /**
      * Each raster request to the server will have the following parameters
      * as keys in the params map accessible by,
@@ -53,6 +144,8 @@ public class MapServer {
      * ullat : upper left corner latitude, <br> ullon : upper left corner longitude, <br>
      * lrlat : lower right corner latitude,<br> lrlon : lower right corner longitude <br>
      * w : user viewport window width in pixels,<br> h : user viewport height in pixels.
+     * A request may also have a ROUTE_TOKEN_PARAM, naming the route to draw, and all of
+     * RASTER_ISOCHRONE_PARAMS, describing an isochrone to draw.
      **/
     private static final String[] REQUIRED_RASTER_REQUEST_PARAMS = {"ullat", "ullon", "lrlat",
         "lrlon", "w", "h"};
@@ -64,17 +157,67 @@ public class MapServer {
      **/
     private static final String[] REQUIRED_ROUTE_REQUEST_PARAMS = {"start_lat", "start_lon",
         "end_lat", "end_lon"};
-
     /**
-     * The result of rastering must be a map containing all of the
-     * fields listed in the comments for getMapRaster in Rasterer.java.
+     * The parameter of /raster and /clear_route requests naming the client's route, with the
+     * token that the /route response returned in its route_token field.
+     */
+    private static final String ROUTE_TOKEN_PARAM = "route_token";
+    /**
+     * Each route matrix request to the server will have the following parameters, each a
+     * list of points written as lon,lat and separated by semicolons.<br>
+     * sources : the start points,<br> targets : the end points.
+     **/
+    private static final String[] REQUIRED_ROUTE_MATRIX_REQUEST_PARAMS = {"sources", "targets"};
+    /**
+     * Each isochrone request to the server will have the following parameters
+     * as keys in the params map.<br>
+     * start_lat : origin latitude,<br> start_lon : origin longitude,<br>
+     * distance : the longest shortest-path distance to include, in miles.
      **/
-    private static final String[] REQUIRED_RASTER_RESULT_PARAMS = {"render_grid", "raster_ul_lon",
-        "raster_ul_lat", "raster_lr_lon", "raster_lr_lat", "depth", "query_success"};
+    private static final String[] REQUIRED_ISOCHRONE_REQUEST_PARAMS = {"start_lat", "start_lon",
+        "distance"};
+    /** The same as REQUIRED_ISOCHRONE_REQUEST_PARAMS, for drawing an isochrone on /raster. */
+    private static final String[] RASTER_ISOCHRONE_PARAMS = {"isochrone_lat", "isochrone_lon",
+        "isochrone_distance"};
+    /**
+     * The optional parameter of every request naming the region to use. Without it, /raster
+     * uses the region that covers most of the query box, /route, /route_matrix and
+     * /isochrone the region of their first point, and /search and /tiles the first region.
+     */
+    private static final String REGION_PARAM = "region";
 
-    private static Rasterer rasterer;
-    private static GraphDB graph;
-    private static List<Long> route = new LinkedList<>();
+    /** The regions served, each with its graph and tiles once they are loaded. */
+    private static Regions regions;
+    /** How long each tile read from disk took, in every region. */
+    private static Metrics.Histogram tileReadTimes;
+    private static RasterCache rasterCache;
+    private static ExecutorService rasterExecutor;
+    private static ExecutorService matrixExecutor;
+    private static RasterEncoder rasterEncoder;
+    /** Each request thread encodes images into its own buffer, reused across requests. */
+    private static final ThreadLocal<ByteArrayOutputStream> ENCODE_BUFFER =
+            ThreadLocal.withInitial(() -> new ByteArrayOutputStream(256 * 1024));
+    /** The routes of all clients, by token. */
+    private static RouteStore routes;
+    /** The metrics served by /metrics and registered as MBeans; see initializeMetrics(). */
+    private static Metrics metrics;
+    /** The endpoints whose handlers are timed, each with its own latency histogram. */
+    private static final String[] TIMED_ENDPOINTS = {"raster", "tiles", "route", "route_matrix",
+        "isochrone", "clear_route", "search"};
+    private static Map<String, Metrics.Histogram> endpointTimes;
+    /* The stages of /raster and /route requests, timed separately. */
+    private static Metrics.Histogram rasterParseTime;
+    private static Metrics.Histogram gridTime;
+    private static Metrics.Histogram compositeTime;
+    private static Metrics.Histogram encodeTime;
+    private static Metrics.Histogram routeParseTime;
+    private static Metrics.Histogram snapTime;
+    private static Metrics.Histogram searchTime;
+    private static Metrics.Histogram directionsTime;
+    /** Bucket bounds for the number of vertices settled by a /route search. */
+    private static final long[] SETTLED_BOUNDS = {100, 300, 1000, 3000, 10000, 30000, 100000,
+        300000, 1000000};
+    private static Metrics.Histogram settledVertices;
     /* Define any static variables here. Do not define any instance variables of MapServer. */
 
 
@@ -84,12 +227,209 @@ public class MapServer {
      * This is for testing purposes, and you may fail tests otherwise.
      **/
     public static void initialize() {
-        graph = new GraphDB(OSM_DB_PATH);
-        rasterer = new Rasterer();
+        List<Region> configured = Collections.singletonList(Region.BERKELEY);
+        if (REGIONS_FILE != null) {
+            try {
+                configured = Region.load(REGIONS_FILE);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot read the regions in " + REGIONS_FILE, e);
+            }
+        }
+        initialize(configured);
+    }
+
+    /**
+     * Initializes the server as initialize() does, but serving the given regions instead of
+     * those of REGIONS_FILE.
+     * @param configured The regions, the first of which is the default.
+     */
+    static void initialize(List<Region> configured) {
+        Router.checkSupported(ROUTER_STRATEGY, ROUTE_WEIGHT);
+        tileReadTimes = Metrics.Histogram.latency();
+        regions = new Regions(configured, MapServer::loadGraph, MapServer::loadTiles);
+        rasterCache = new RasterCache(RASTER_CACHE_BYTES);
+        routes = new RouteStore(MAX_ROUTES, ROUTE_TTL_SECONDS);
+        rasterExecutor = Executors.newFixedThreadPool(RASTER_THREADS, r -> {
+            Thread t = new Thread(r, "raster");
+            t.setDaemon(true);
+            return t;
+        });
+        matrixExecutor = Executors.newFixedThreadPool(MATRIX_THREADS, r -> {
+            Thread t = new Thread(r, "route-matrix");
+            t.setDaemon(true);
+            return t;
+        });
+        rasterEncoder = RASTER_FORMAT.equals("jpeg") ? RasterEncoder.jpeg(JPEG_QUALITY)
+                : RasterEncoder.png(PNG_LEVEL);
+        initializeMetrics();
+        for (Region region : preloadedRegions()) {
+            regions.graph(region);
+            regions.tiles(region);
+        }
+    }
+
+    /** Returns the regions named by PRELOAD_REGIONS, or the first region by default. */
+    private static List<Region> preloadedRegions() {
+        if (PRELOAD_REGIONS == null) {
+            return Collections.singletonList(regions.first());
+        }
+        List<Region> preloaded = new ArrayList<>();
+        for (String name : PRELOAD_REGIONS.split(",")) {
+            if (name.trim().isEmpty()) {
+                continue;
+            }
+            Region region = regions.get(name.trim());
+            if (region == null) {
+                throw new IllegalStateException("There is no region named " + name.trim());
+            }
+            preloaded.add(region);
+        }
+        return preloaded;
+    }
+
+    /**
+     * Loads the graph of a region and prepares it for the ROUTER_STRATEGY.
+     * @param region The region.
+     * @return The graph, with its location index and isochrone cache.
+     * @throws IllegalStateException If the OSM file cannot be read or parsed, so that
+     *                               Regions tries again on the next request.
+     */
+    private static Regions.Graph loadGraph(Region region) {
+        GraphDB graph = new GraphDB(region.osmPath);
+        if (!graph.loaded()) {
+            throw new IllegalStateException("Cannot load the graph of " + region + " from "
+                    + region.osmPath);
+        }
+        if (ROUTER_STRATEGY == Router.Strategy.CONTRACTION_HIERARCHY) {
+            graph.prepareContractionHierarchy(region.osmPath + CH_CACHE_SUFFIX);
+        } else if (ROUTER_STRATEGY == Router.Strategy.ALT) {
+            graph.prepareLandmarks(NUM_LANDMARKS);
+        }
+        return new Regions.Graph(graph, LocationIndex.of(graph),
+                new IsochroneCache(graph, ISOCHRONE_ORIGINS));
+    }
+
+    /**
+     * Creates the rasterer and tile cache of a region, and warms up the cache.
+     * @param region The region.
+     * @return The tiles.
+     */
+    private static Regions.Tiles loadTiles(Region region) {
+        TileCache cache = new TileCache(region.tileRoot, TILE_CACHE_BYTES, tileReadTimes);
+        cache.warmUp(Math.min(TILE_WARM_DEPTH, region.maxDepth));
+        return new Regions.Tiles(new Rasterer(region), cache);
+    }
+
+    /**
+     * Creates the metrics: a latency histogram per endpoint and per stage of /raster and
+     * /route, the vertices settled per route, and the counters of the caches. The tile and
+     * isochrone cache counters are summed over the regions loaded so far.
+     */
+    private static void initializeMetrics() {
+        metrics = new Metrics();
+        endpointTimes = new HashMap<>();
+        for (String endpoint : TIMED_ENDPOINTS) {
+            endpointTimes.put(endpoint, metrics.latency("bearmaps_request_duration_seconds",
+                    "Time to handle a request, by endpoint.", "endpoint=\"" + endpoint + "\""));
+        }
+        String stages = "bearmaps_stage_duration_seconds";
+        String stagesHelp = "Time spent in each stage of a request, by endpoint and stage.";
+        rasterParseTime = metrics.latency(stages, stagesHelp, stageLabels("raster", "parse"));
+        gridTime = metrics.latency(stages, stagesHelp, stageLabels("raster", "grid"));
+        metrics.histogram(stages, stagesHelp, stageLabels("raster", "tile_io"), tileReadTimes);
+        compositeTime = metrics.latency(stages, stagesHelp, stageLabels("raster", "composite"));
+        encodeTime = metrics.latency(stages, stagesHelp, stageLabels("raster", "encode"));
+        routeParseTime = metrics.latency(stages, stagesHelp, stageLabels("route", "parse"));
+        snapTime = metrics.latency(stages, stagesHelp, stageLabels("route", "snap"));
+        searchTime = metrics.latency(stages, stagesHelp, stageLabels("route", "search"));
+        directionsTime = metrics.latency(stages, stagesHelp,
+                stageLabels("route", "directions"));
+        settledVertices = metrics.histogram("bearmaps_route_settled_vertices",
+                "Vertices settled by the search of each /route request.", "",
+                new Metrics.Histogram(SETTLED_BOUNDS, 1));
+
+        metrics.counter("bearmaps_tile_cache_hits_total", "Tiles found in the tile cache.",
+                () -> sumOverTiles(TileCache::hits));
+        metrics.counter("bearmaps_tile_cache_misses_total", "Tiles read from disk.",
+                () -> sumOverTiles(TileCache::misses));
+        metrics.counter("bearmaps_tile_cache_evictions_total",
+                "Tiles evicted from the tile cache.", () -> sumOverTiles(TileCache::evictions));
+        metrics.gauge("bearmaps_tile_cache_bytes", "Bytes of decoded tiles in the tile cache.",
+                () -> sumOverTiles(TileCache::bytes));
+        metrics.counter("bearmaps_raster_cache_hits_total",
+                "Raster images found in the raster cache.", () -> rasterCache.hits());
+        metrics.counter("bearmaps_raster_cache_misses_total",
+                "Raster images not found in the raster cache.", () -> rasterCache.misses());
+        metrics.gauge("bearmaps_raster_cache_bytes",
+                "Bytes of encoded images in the raster cache.", () -> rasterCache.bytes());
+        metrics.counter("bearmaps_raster_images_total", "Raster images encoded.",
+                () -> rasterEncoder.images());
+        metrics.counter("bearmaps_raster_image_bytes_total",
+                "Bytes of encoded raster images.", () -> rasterEncoder.bytes());
+        metrics.counter("bearmaps_isochrone_cache_hits_total",
+                "Isochrones answered from a kept search.",
+                () -> sumOverGraphs(g -> g.isochrones.hits()));
+        metrics.counter("bearmaps_isochrone_cache_misses_total",
+                "Isochrones that needed a new search.",
+                () -> sumOverGraphs(g -> g.isochrones.misses()));
+        metrics.gauge("bearmaps_routes", "Routes kept for clients.", () -> routes.size());
+        metrics.gauge("bearmaps_regions", "Regions served.", () -> regions.all().size());
+        metrics.gauge("bearmaps_region_graphs_loaded", "Regions whose graph is loaded.",
+                () -> regions.loadedGraphs().size());
+        metrics.gauge("bearmaps_region_tiles_loaded", "Regions whose tiles are loaded.",
+                () -> regions.loadedTiles().size());
+    }
+
+    /** Returns the sum of a counter over the tile caches of the regions loaded so far. */
+    private static long sumOverTiles(ToLongFunction<TileCache> counter) {
+        long sum = 0;
+        for (Regions.Tiles tiles : regions.loadedTiles()) {
+            sum += counter.applyAsLong(tiles.cache);
+        }
+        return sum;
+    }
+
+    /** Returns the sum of a counter over the graphs of the regions loaded so far. */
+    private static long sumOverGraphs(ToLongFunction<Regions.Graph> counter) {
+        long sum = 0;
+        for (Regions.Graph graph : regions.loadedGraphs()) {
+            sum += counter.applyAsLong(graph);
+        }
+        return sum;
+    }
+
+    /** Returns the Prometheus labels of a stage histogram. */
+    private static String stageLabels(String endpoint, String stage) {
+        return "endpoint=\"" + endpoint + "\",stage=\"" + stage + "\"";
+    }
+
+    /**
+     * Returns a handler that runs handler and records how long it took in the latency
+     * histogram of the endpoint, whether it returns or halts.
+     */
+    private static spark.Route timed(String endpoint, spark.Route handler) {
+        Metrics.Histogram histogram = endpointTimes.get(endpoint);
+        return (req, res) -> {
+            long start = System.nanoTime();
+            try {
+                return handler.handle(req, res);
+            } finally {
+                histogram.recordSince(start);
+            }
+        };
+    }
+
+    /**
+     * Returns the server's metrics, which are replaced each time initialize() is called.
+     * @return The metrics.
+     */
+    public static Metrics metrics() {
+        return metrics;
     }
 
     public static void main(String[] args) {
         initialize();
+        metrics.registerMBeans("bearmaps");
         staticFileLocation("/page");
         /* Allow for all origin requests (since this is not an authenticated server, we do not
          * care about CSRF).  */
@@ -101,62 +441,153 @@ public class MapServer {
 
         /* Define the raster endpoint for HTTP GET requests. I use anonymous functions to define
          * the request handlers. */
-        get("/raster", (req, res) -> {
+        get("/raster", timed("raster", (req, res) -> {
+            long start = System.nanoTime();
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
-            /* The png image is written to the ByteArrayOutputStream */
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            /* getMapRaster() does almost all the work for this API call */
-            Map<String, Object> rasteredImgParams = rasterer.getMapRaster(params);
-
-            boolean rasterSuccess = validateRasteredImgParams(rasteredImgParams);
-
-            if (rasterSuccess) {
-                writeImagesToOutputStream(rasteredImgParams, os);
-                String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
-                rasteredImgParams.put("b64_encoded_image_data", encodedImage);
+            Region region = requestedRegion(req);
+            /* With grid_only, only the grid is returned and the client fetches the tiles from
+             * /tiles itself. */
+            if (req.queryParams().contains("grid_only")) {
+                rasterParseTime.recordSince(start);
+                return rasterGrid(region, params);
+            }
+            RouteStore.Route route = routes.get(req.queryParams(ROUTE_TOKEN_PARAM));
+            rasterParseTime.recordSince(start);
+            Isochrone isochrone = null;
+            if (req.queryParams().containsAll(Arrays.asList(RASTER_ISOCHRONE_PARAMS))) {
+                HashMap<String, Double> isoParams =
+                        getRequestParams(req, RASTER_ISOCHRONE_PARAMS);
+                double lon = isoParams.get("isochrone_lon");
+                double lat = isoParams.get("isochrone_lat");
+                double distance = distanceParam(isoParams, "isochrone_distance");
+                Region isoRegion = region != null ? region : regions.at(lon, lat);
+                isochrone = regions.graph(isoRegion).isochrones.get(lon, lat, distance);
             }
+            /* The response is streamed, so that the Base64 image is never held as a String. */
+            OutputStream out = res.raw().getOutputStream();
+            raster(region, params, route, isochrone, out);
+            out.flush();
+            return "";
+        }));
 
-            /* Encode response to Json */
-            Gson gson = new Gson();
-            return gson.toJson(rasteredImgParams);
-        });
+        /* Define the endpoint for single tiles, served straight from disk. */
+        get("/tiles/:depth/:x/:y", timed("tiles", (req, res) -> {
+            Region region = requestedRegion(req);
+            File tile = tileFile(region != null ? region : regions.first(), req.params(":depth"),
+                    req.params(":x"), req.params(":y"));
+            int status = tileStatus(tile, req.headers("If-None-Match"));
+            if (status == NOT_FOUND_RESPONSE) {
+                halt(NOT_FOUND_RESPONSE, "No such tile.");
+            }
+            res.header("ETag", etag(tile));
+            res.header("Cache-Control", TILE_CACHE_CONTROL);
+            if (status == NOT_MODIFIED_RESPONSE) {
+                halt(NOT_MODIFIED_RESPONSE);
+            }
+            res.type("image/png");
+            return Files.readAllBytes(tile.toPath());
+        }));
 
         /* Define the routing endpoint for HTTP GET requests. */
-        get("/route", (req, res) -> {
+        get("/route", timed("route", (req, res) -> {
+            long start = System.nanoTime();
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
-            route = Router.shortestPath(graph, params.get("start_lon"), params.get("start_lat"),
-                    params.get("end_lon"), params.get("end_lat"));
-            String directions = getDirectionsText();
+            Region region = requestedRegion(req);
+            start = routeParseTime.recordSince(start);
+            if (region == null) {
+                region = regions.at(params.get("start_lon"), params.get("start_lat"));
+            }
+            /* The first request for a region also loads its graph, which is timed as snap. */
+            GraphDB graph = regions.graph(region).graph;
+            int st = graph.index(graph.closest(params.get("start_lon"), params.get("start_lat")));
+            int dest = graph.index(graph.closest(params.get("end_lon"), params.get("end_lat")));
+            start = snapTime.recordSince(start);
+            List<Long> path = Router.shortestPath(graph, st, dest, ROUTER_STRATEGY, ROUTE_WEIGHT);
+            start = searchTime.recordSince(start);
+            /* Without both ends there is no search, and the count is of an earlier one. */
+            if (st >= 0 && dest >= 0) {
+                settledVertices.record(Router.settledCount());
+            }
+            String directions = getDirectionsText(graph, path);
+            directionsTime.recordSince(start);
             Map<String, Object> routeParams = new HashMap<>();
-            routeParams.put("routing_success", !route.isEmpty());
+            routeParams.put("routing_success", !path.isEmpty());
+            if (!path.isEmpty()) {
+                routeParams.put(ROUTE_TOKEN_PARAM, routes.add(graph, path).token);
+            }
             routeParams.put("directions_success", directions.length() > 0);
             routeParams.put("directions", directions);
             Gson gson = new Gson();
             return gson.toJson(routeParams);
-        });
+        }));
+
+        /* Define the endpoint for the distances from many start points to many end points. */
+        get("/route_matrix", timed("route_matrix", (req, res) -> {
+            Map<String, double[][]> params =
+                    getPointParams(req, REQUIRED_ROUTE_MATRIX_REQUEST_PARAMS);
+            double[][] sources = params.get("sources");
+            double[][] targets = params.get("targets");
+            Region region = requestedRegion(req);
+            if (region == null) {
+                double[][] points = sources.length > 0 ? sources : targets;
+                region = points.length > 0 ? regions.at(points[0][0], points[0][1])
+                        : regions.first();
+            }
+            return routeMatrix(region, sources, targets);
+        }));
 
-        /* Define the API endpoint for clearing the current route. */
-        get("/clear_route", (req, res) -> {
-            clearRoute();
+        /* Define the endpoint for the places within a distance of a start point. */
+        get("/isochrone", timed("isochrone", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_ISOCHRONE_REQUEST_PARAMS);
+            double distance = distanceParam(params, "distance");
+            Region region = requestedRegion(req);
+            if (region == null) {
+                region = regions.at(params.get("start_lon"), params.get("start_lat"));
+            }
+            Isochrone isochrone = regions.graph(region).isochrones.get(params.get("start_lon"),
+                    params.get("start_lat"), distance);
+            Map<String, Object> isochroneParams = new HashMap<>();
+            isochroneParams.put("isochrone_success", !isochrone.isEmpty());
+            isochroneParams.put("vertices", isochrone.vertices());
+            isochroneParams.put("distances", isochrone.distances());
+            isochroneParams.put("boundary", isochrone.boundary());
+            Gson gson = new Gson();
+            return gson.toJson(isochroneParams);
+        }));
+
+        /* Define the API endpoint for clearing the client's route. */
+        get("/clear_route", timed("clear_route", (req, res) -> {
+            clearRoute(req.queryParams(ROUTE_TOKEN_PARAM));
             return true;
-        });
+        }));
 
         /* Define the API endpoint for search */
-        get("/search", (req, res) -> {
+        get("/search", timed("search", (req, res) -> {
             Set<String> reqParams = req.queryParams();
             String term = req.queryParams("term");
+            Region region = requestedRegion(req);
+            if (region == null) {
+                region = regions.first();
+            }
             Gson gson = new Gson();
             /* Search for actual location data. */
             if (reqParams.contains("full")) {
-                List<Map<String, Object>> data = getLocations(term);
+                List<Map<String, Object>> data = getLocations(region, term);
                 return gson.toJson(data);
             } else {
                 /* Search for prefix matching strings. */
-                List<String> matches = getLocationsByPrefix(term);
+                List<String> matches = getLocationsByPrefix(region, term);
                 return gson.toJson(matches);
             }
+        }));
+
+        /* Define the endpoint for the metrics, in the Prometheus text format. */
+        get("/metrics", (req, res) -> {
+            res.type("text/plain; version=0.0.4; charset=utf-8");
+            return metrics.scrape();
         });
 
         /* Define map application redirect */
@@ -166,6 +597,149 @@ public class MapServer {
         });
     }
 
+    /**
+     * Handles a /raster request with grid_only set. The response has the same fields as a
+     * normal /raster response, except that instead of an image it has tile_urls, the /tiles
+     * URL of each tile in render_grid. The route is not drawn.
+     * @param region The region to raster, or null for the region covering the query box.
+     * @param params The query box and viewport size, as described for
+     *               REQUIRED_RASTER_REQUEST_PARAMS.
+     * @return The Json response.
+     */
+    static String rasterGrid(Region region, Map<String, Double> params) {
+        long start = System.nanoTime();
+        Rasterer.Raster raster = rasterOf(region, params);
+        gridTime.recordSince(start);
+        Map<String, Object> rasteredImgParams = raster.toMap();
+        if (raster.querySuccess) {
+            /* Tiles of the first region are also served without a region parameter. */
+            String query = raster.region == regions.first() ? ""
+                    : "?" + REGION_PARAM + "=" + urlEncode(raster.region.name);
+            String[][] tileUrls = new String[raster.renderGrid.length][];
+            for (int r = 0; r < tileUrls.length; r += 1) {
+                tileUrls[r] = new String[raster.renderGrid[r].length];
+                for (int c = 0; c < tileUrls[r].length; c += 1) {
+                    tileUrls[r][c] = "/tiles/" + raster.depth + "/" + (raster.firstX + c) + "/"
+                            + (raster.firstY + r) + ".png" + query;
+                }
+            }
+            rasteredImgParams.put("tile_urls", tileUrls);
+            rasteredImgParams.put("raster_width", raster.width());
+            rasteredImgParams.put("raster_height", raster.height());
+        }
+        Gson gson = new Gson();
+        return gson.toJson(rasteredImgParams);
+    }
+
+    /**
+     * Returns the image file of a tile, given the path parameters of a /tiles request.
+     * @param region The region of the tile.
+     * @param depth The depth of the tile.
+     * @param x The column of the tile.
+     * @param y The row of the tile, followed by ".png".
+     * @return The file, or null if the parameters do not name an existing tile.
+     */
+    static File tileFile(Region region, String depth, String x, String y) {
+        if (!y.endsWith(".png")) {
+            return null;
+        }
+        try {
+            int d = Integer.parseInt(depth);
+            int tx = Integer.parseInt(x);
+            int ty = Integer.parseInt(y.substring(0, y.length() - ".png".length()));
+            return region.tileFile(d, tx, ty);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the ETag of a tile, which changes whenever the file is modified.
+     * @param tile The tile.
+     * @return The ETag, quoted.
+     */
+    static String etag(File tile) {
+        return "\"" + Long.toHexString(tile.lastModified()) + "-"
+                + Long.toHexString(tile.length()) + "\"";
+    }
+
+    /**
+     * Returns the status of the response to a /tiles request.
+     * @param tile The tile, from tileFile.
+     * @param ifNoneMatch The If-None-Match header of the request, which may be null.
+     * @return 404 if there is no tile, 304 if the client already has it because
+     *         ifNoneMatch is its ETag, and 200 otherwise.
+     */
+    static int tileStatus(File tile, String ifNoneMatch) {
+        if (tile == null) {
+            return NOT_FOUND_RESPONSE;
+        }
+        return etag(tile).equals(ifNoneMatch) ? NOT_MODIFIED_RESPONSE : OK_RESPONSE;
+    }
+
+    /**
+     * Handles a /raster request, writing the Json response to out. The Base64 encoded image
+     * is streamed into the b64_encoded_image_data field, and image_format says whether it
+     * is a png or a jpeg.
+     * @param params The query box and viewport size, as described for
+     *               REQUIRED_RASTER_REQUEST_PARAMS.
+     * @param route The route to draw over the tiles, or RouteStore.Route.EMPTY.
+     * @param out Where to write the response. It is not closed.
+     * @throws IOException If writing to out fails.
+     */
+    static void raster(Map<String, Double> params, RouteStore.Route route, OutputStream out)
+            throws IOException {
+        raster(null, params, route, null, out);
+    }
+
+    /**
+     * Handles a /raster request for a region that may also draw an isochrone, writing the
+     * Json response to out. See raster(Map, RouteStore.Route, OutputStream).
+     * @param region The region to raster, or null for the region covering the query box.
+     * @param isochrone The isochrone to draw under the route, or null.
+     */
+    static void raster(Region region, Map<String, Double> params, RouteStore.Route route,
+                       Isochrone isochrone, OutputStream out) throws IOException {
+        /* Rastering does almost all the work for this API call */
+        long start = System.nanoTime();
+        Rasterer.Raster raster = rasterOf(region, params);
+        gridTime.recordSince(start);
+        Map<String, Object> rasteredImgParams = raster.toMap();
+
+        byte[] image = null;
+        if (raster.querySuccess) {
+            image = getRasterImage(raster, route, isochrone);
+            rasteredImgParams.put("raster_width", raster.width());
+            rasteredImgParams.put("raster_height", raster.height());
+            rasteredImgParams.put("image_format", rasterEncoder.format());
+        }
+
+        /* Encode response to Json */
+        Gson gson = new Gson();
+        String json = gson.toJson(rasteredImgParams);
+        if (image == null) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        /* Gson always writes a non-empty map as {...}; splice the image in before the }. */
+        out.write(json.substring(0, json.length() - 1).getBytes(StandardCharsets.UTF_8));
+        out.write(",\"b64_encoded_image_data\":\"".getBytes(StandardCharsets.UTF_8));
+        OutputStream base64 = Base64.getEncoder().wrap(new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                /* Leave out open; the Base64 stream closes this to flush its last bytes. */
+            }
+        });
+        base64.write(image);
+        base64.close();
+        out.write("\"}".getBytes(StandardCharsets.UTF_8));
+    }
+
     /**
      * Validate & return a parameter map of the required request parameters.
      * Requires that all input parameters are doubles.
@@ -193,178 +767,290 @@ public class MapServer {
     }
 
     /**
-     * Writes the images corresponding to rasteredImgParams to the output stream.
+     * Returns a distance parameter, refusing the request unless it is a finite number that
+     * is not negative.
+     * @param params The parameters, from getRequestParams.
+     * @param param The name of the distance parameter.
+     * @return The distance.
+     */
+    private static double distanceParam(Map<String, Double> params, String param) {
+        double distance = params.get(param);
+        if (!(distance >= 0) || Double.isInfinite(distance)) {
+            halt(HALT_RESPONSE, "Incorrect parameters - " + param
+                    + " must be a number that is not negative.");
+        }
+        return distance;
+    }
+
+    /**
+     * Validate & return a parameter map of the required request parameters, each a list of
+     * points written as lon,lat and separated by semicolons. Requests with more than
+     * MAX_MATRIX_POINTS points in a parameter are refused.
+     * @param req HTTP Request.
+     * @param requiredParams TestParams to validate.
+     * @return A populated map of input parameter to its points, each {lon, lat}.
+     */
+    private static HashMap<String, double[][]> getPointParams(
+            spark.Request req, String[] requiredParams) {
+        Set<String> reqParams = req.queryParams();
+        HashMap<String, double[][]> params = new HashMap<>();
+        for (String param : requiredParams) {
+            if (!reqParams.contains(param)) {
+                halt(HALT_RESPONSE, "Request failed - parameters missing.");
+            }
+            String value = req.queryParams(param).trim();
+            String[] points = value.isEmpty() ? new String[0] : value.split(";");
+            if (points.length > MAX_MATRIX_POINTS) {
+                halt(HALT_RESPONSE, "Request failed - more than " + MAX_MATRIX_POINTS
+                        + " " + param + ".");
+            }
+            double[][] parsed = new double[points.length][];
+            for (int i = 0; i < points.length; i++) {
+                String[] lonLat = points[i].split(",");
+                try {
+                    if (lonLat.length != 2) {
+                        throw new NumberFormatException(points[i]);
+                    }
+                    parsed[i] = new double[]{Double.parseDouble(lonLat[0].trim()),
+                        Double.parseDouble(lonLat[1].trim())};
+                } catch (NumberFormatException e) {
+                    e.printStackTrace();
+                    halt(HALT_RESPONSE, "Incorrect parameters - provide lon,lat pairs.");
+                }
+            }
+            params.put(param, parsed);
+        }
+        return params;
+    }
+
+    /**
+     * Returns the region named by the region parameter of a request, halting the request if
+     * there is no such region.
+     * @param req HTTP Request.
+     * @return The region, or null if the request does not name one.
+     */
+    private static Region requestedRegion(spark.Request req) {
+        String name = req.queryParams(REGION_PARAM);
+        if (name == null) {
+            return null;
+        }
+        Region region = regions.get(name);
+        if (region == null) {
+            halt(HALT_RESPONSE, "Incorrect parameters - no such region.");
+        }
+        return region;
+    }
+
+    private static String urlEncode(String s) {
+        try {
+            return URLEncoder.encode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Handles a /route_matrix request. The response has a distances field, where
+     * distances[i][j] is the length in miles of the shortest route from sources[i] to
+     * targets[j], or null if there is no route.
+     * @param region The region whose graph to route in.
+     * @param sources The {lon, lat} of each start point.
+     * @param targets The {lon, lat} of each end point.
+     * @return The Json response.
+     */
+    static String routeMatrix(Region region, double[][] sources, double[][] targets) {
+        double[][] distances = Router.distanceMatrix(regions.graph(region).graph, sources,
+                targets, matrixExecutor);
+        Double[][] table = new Double[distances.length][];
+        for (int i = 0; i < distances.length; i++) {
+            table[i] = new Double[distances[i].length];
+            for (int j = 0; j < distances[i].length; j++) {
+                table[i][j] = Double.isInfinite(distances[i][j]) ? null : distances[i][j];
+            }
+        }
+        Map<String, Object> matrixParams = new HashMap<>();
+        matrixParams.put("distances", table);
+        Gson gson = new Gson();
+        return gson.toJson(matrixParams);
+    }
+
+    /**
+     * Rasters the query box of a /raster request in a region, or if region is null, in the
+     * region that covers the most of the box.
+     */
+    private static Rasterer.Raster rasterOf(Region region, Map<String, Double> params) {
+        double ullon = params.get("ullon");
+        double ullat = params.get("ullat");
+        double lrlon = params.get("lrlon");
+        double lrlat = params.get("lrlat");
+        if (region == null) {
+            region = regions.covering(ullon, ullat, lrlon, lrlat);
+        }
+        return regions.tiles(region).rasterer.raster(ullon, ullat, lrlon, lrlat,
+                params.get("w"), params.get("h"));
+    }
+
+    /**
+     * Returns the image for a successful raster, from the raster cache if the same tiles
+     * were rendered with the same route before. Images with an isochrone are not cached;
+     * the isochrone itself is.
+     */
+    private static byte[] getRasterImage(Rasterer.Raster raster, RouteStore.Route route,
+                                         Isochrone isochrone) {
+        String key = isochrone == null
+                ? RasterCache.key(raster.region.name, raster.renderGrid, route.id) : null;
+        byte[] image = key == null ? null : rasterCache.get(key);
+        if (image != null) {
+            return image;
+        }
+        /* The image is encoded into this thread's reusable buffer */
+        ByteArrayOutputStream os = ENCODE_BUFFER.get();
+        os.reset();
+        writeImagesToOutputStream(raster, regions.tiles(raster.region).cache, route.overlay,
+                isochrone, os);
+        image = os.toByteArray();
+        if (os.size() > MAX_REUSED_BUFFER_BYTES) {
+            ENCODE_BUFFER.remove();
+        }
+        if (key != null && image.length > 0) {
+            rasterCache.put(key, image);
+        }
+        return image;
+    }
+
+    /**
+     * Writes the images corresponding to raster to the output stream.
      * In Spring 2016, students had to do this on their own, but in 2017,
      * we have made this into provided code since it was just a bit too low level.
      */
-    private static void writeImagesToOutputStream(Map<String, Object> rasteredImageParams,
+    private static void writeImagesToOutputStream(Rasterer.Raster raster, TileCache tileCache,
+                                                  RouteOverlay overlay, Isochrone isochrone,
                                                   ByteArrayOutputStream os) {
-        String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
+        long start = System.nanoTime();
+        String[][] renderGrid = raster.renderGrid;
         int numVertTiles = renderGrid.length;
         int numHorizTiles = renderGrid[0].length;
 
         BufferedImage img = new BufferedImage(numHorizTiles * MapServer.TILE_SIZE,
                 numVertTiles * MapServer.TILE_SIZE, BufferedImage.TYPE_INT_RGB);
         Graphics graphic = img.getGraphics();
-        int x = 0, y = 0;
 
+        /* Fetch every tile on the raster executor, and draw each row of tiles into its own
+         * strip of img as soon as the row's tiles are ready. The strips do not overlap. */
+        CompletableFuture<?>[] rows = new CompletableFuture<?>[numVertTiles];
         for (int r = 0; r < numVertTiles; r += 1) {
-            for (int c = 0; c < numHorizTiles; c += 1) {
-                graphic.drawImage(getImage(IMG_ROOT + renderGrid[r][c]), x, y, null);
-                x += MapServer.TILE_SIZE;
-                if (x >= img.getWidth()) {
-                    x = 0;
-                    y += MapServer.TILE_SIZE;
+            CompletableFuture<BufferedImage>[] tiles = fetchTiles(tileCache, renderGrid[r]);
+            int y = r * MapServer.TILE_SIZE;
+            rows[r] = CompletableFuture.allOf(tiles).thenRunAsync(() -> {
+                BufferedImage strip = img.getSubimage(0, y, img.getWidth(), MapServer.TILE_SIZE);
+                Graphics stripGraphic = strip.getGraphics();
+                for (int c = 0; c < tiles.length; c += 1) {
+                    stripGraphic.drawImage(tiles[c].join(), c * MapServer.TILE_SIZE, 0, null);
                 }
-            }
+                stripGraphic.dispose();
+            }, rasterExecutor);
         }
+        CompletableFuture.allOf(rows).join();
 
         /* If there is a route, draw it. */
-        double ullon = (double) rasteredImageParams.get("raster_ul_lon"); //tiles.get(0).ulp;
-        double ullat = (double) rasteredImageParams.get("raster_ul_lat"); //tiles.get(0).ulp;
-        double lrlon = (double) rasteredImageParams.get("raster_lr_lon"); //tiles.get(0).ulp;
-        double lrlat = (double) rasteredImageParams.get("raster_lr_lat"); //tiles.get(0).ulp;
-
-        final double wdpp = (lrlon - ullon) / img.getWidth();
-        final double hdpp = (ullat - lrlat) / img.getHeight();
-        if (route != null && !route.isEmpty()) {
+        double ullon = raster.ulLon;
+        double ullat = raster.ulLat;
+        double lrlon = raster.lrLon;
+        double lrlat = raster.lrLat;
+
+        if (isochrone != null && !isochrone.isEmpty()) {
+            Graphics2D g2d = (Graphics2D) graphic;
+            g2d.setColor(MapServer.ISOCHRONE_FILL_COLOR);
+            g2d.setStroke(new BasicStroke(MapServer.ISOCHRONE_STROKE_WIDTH_PX,
+                    BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            isochrone.draw(g2d, ullon, ullat, lrlon, lrlat, img.getWidth(), img.getHeight(),
+                    MapServer.ISOCHRONE_STROKE_COLOR);
+        }
+        if (!overlay.isEmpty()) {
             Graphics2D g2d = (Graphics2D) graphic;
             g2d.setColor(MapServer.ROUTE_STROKE_COLOR);
             g2d.setStroke(new BasicStroke(MapServer.ROUTE_STROKE_WIDTH_PX,
                     BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-            route.stream().reduce((v, w) -> {
-                g2d.drawLine((int) ((graph.lon(v) - ullon) * (1 / wdpp)),
-                             (int) ((ullat - graph.lat(v)) * (1 / hdpp)),
-                             (int) ((graph.lon(w) - ullon) * (1 / wdpp)),
-                             (int) ((ullat - graph.lat(w)) * (1 / hdpp)));
-                return w;
-            });
+            overlay.draw(g2d, ullon, ullat, lrlon, lrlat, img.getWidth(), img.getHeight());
         }
 
-        rasteredImageParams.put("raster_width", img.getWidth());
-        rasteredImageParams.put("raster_height", img.getHeight());
-
+        /* Compositing includes waiting for the tiles, whose reads are timed as tile_io. */
+        start = compositeTime.recordSince(start);
         try {
-            ImageIO.write(img, "png", os);
+            rasterEncoder.encode(img, os);
         } catch (IOException e) {
             e.printStackTrace();
         }
+        encodeTime.recordSince(start);
 
     }
 
-    private static BufferedImage getImage(String imgPath) {
-        BufferedImage tileImg = null;
-        if (tileImg == null) {
-            try {
-                File in = new File(imgPath);
-                tileImg = ImageIO.read(in);
-            } catch (IOException | NullPointerException e) {
-                e.printStackTrace();
-            }
+    /** Starts fetching the given tiles from a tile cache on the raster executor. */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static CompletableFuture<BufferedImage>[] fetchTiles(TileCache tileCache,
+                                                                 String[] names) {
+        CompletableFuture<BufferedImage>[] tiles = new CompletableFuture[names.length];
+        for (int c = 0; c < names.length; c += 1) {
+            String name = names[c];
+            tiles[c] = CompletableFuture.supplyAsync(() -> tileCache.get(name), rasterExecutor);
         }
-        return tileImg;
+        return tiles;
     }
 
     /**
-     * Clear the current found route, if it exists.
+     * Returns the cache of decoded tiles used by /raster in the first region, loading the
+     * region's tiles if they are not yet.
+     * @return The tile cache.
      */
-    public static void clearRoute() {
-        route = new LinkedList<Long>();
+    public static TileCache tileCache() {
+        return regions.tiles(regions.first()).cache;
     }
 
     /**
-     * In linear time, collect all the names of OSM locations that prefix-match the query string.
+     * Returns the regions served, which are replaced each time initialize() is called.
+     * @return The regions.
+     */
+    public static Regions regions() {
+        return regions;
+    }
+
+    /**
+     * Returns the encoder used for /raster images, which also counts encoding time and bytes.
+     * @return The raster encoder.
+     */
+    public static RasterEncoder rasterEncoder() {
+        return rasterEncoder;
+    }
+
+    /**
+     * Clear a client's route, if it exists. Images cached with the route drawn on them are
+     * left for the raster cache to evict.
+     * @param token The token of the route, which may be null.
+     */
+    public static void clearRoute(String token) {
+        routes.remove(token);
+    }
+
+    /**
+     * Collect the names of OSM locations that prefix-match the query string, using the
+     * location index built at startup. At most SEARCH_LIMIT names are returned, the names
+     * of the most locations first.
      * @param prefix Prefix string to be searched for. Could be any case, with our without
      *               punctuation.
      * @return A <code>List</code> of the full names of locations whose cleaned name matches the
      * cleaned <code>prefix</code>.
      */
     public static List<String> getLocationsByPrefix(String prefix) {
-        Tries tries = new Tries();
-        for (long id : graph.vertices()) {
-            GraphDB.Node n = graph.nodes.get(id);
-            String name = n.extraInfo.get("name");
-            if (name == null) {
-                continue;
-            }
-            tries.add(name.toLowerCase());
-        }
-        return tries.prefix(prefix.toLowerCase());
+        return getLocationsByPrefix(regions.first(), prefix);
     }
 
-    private static class Tries {
-
-        private static class TNode {
-            boolean isEnd = false;
-            TNode[] next;
-            TNode() {
-                isEnd = false;
-                next = new TNode[128];
-                for (int i = 0; i < 128; i++) {
-                    next[i] = null;
-                }
-            }
-        }
-
-        private TNode root;
-
-        Tries() {
-            root = new TNode();
-        }
-
-        public void add(String word) {
-            if (word == null) {
-                return;
-            }
-            TNode p;
-            p = root;
-            for (int i = 0;i < word.length();i++) {
-                if (p.next[(int) word.charAt(i)] == null) {
-                    p.next[(int) word.charAt(i)] = new TNode();
-                }
-                p = p.next[(int) word.charAt(i)];
-            }
-            p.isEnd = true;
-        }
-
-        public boolean search(String word) {
-            if (word == null) {
-                return false;
-            }
-            TNode p = root;
-            for (int i = 0;i < word.length();i++) {
-                if (p.next[(int) word.charAt(i)] != null) {
-                    p = p.next[(int) word.charAt(i)];
-                } else {
-                    return false;
-                }
-            }
-            return p.isEnd;
-        }
-
-        public List<String> prefix(String prefix) {
-            List<String> result = new LinkedList<>();
-            TNode p = root;
-            for (int i = 0; i < prefix.length(); i++) {
-                if (p.next[(int) prefix.charAt(i)] == null) {
-                    return result;
-                }
-                p = p.next[(int) prefix.charAt(i)];
-            }
-            dfs(p,prefix,result);
-            return result;
-        }
-
-        private void dfs(TNode p,String curr,List<String> result) {
-            if (p.isEnd) {
-                result.add(curr);
-            }
-            for (int i = 0; i < 128; i++) {
-                if (p.next[i] != null) {
-                    dfs(p.next[i], curr + (char) i, result);
-                }
-            }
-        }
+    /**
+     * Collect the names of OSM locations in a region that prefix-match the query string.
+     * See getLocationsByPrefix(String).
+     * @param region The region to search, whose graph is loaded if it is not yet.
+     */
+    public static List<String> getLocationsByPrefix(Region region, String prefix) {
+        return regions.graph(region).locationIndex.complete(prefix, SEARCH_LIMIT);
     }
 
     /**
@@ -380,35 +1066,23 @@ public class MapServer {
      * "id" : Number, The id of the node. <br>
      */
     public static List<Map<String, Object>> getLocations(String locationName) {
-        return new LinkedList<>();
+        return getLocations(regions.first(), locationName);
     }
 
     /**
-     * Validates that Rasterer has returned a result that can be rendered.
-     * @param rip : Parameters provided by the rasterer
+     * Collect all locations in a region that match a cleaned <code>locationName</code>. See
+     * getLocations(String).
+     * @param region The region to search, whose graph is loaded if it is not yet.
      */
-    private static boolean validateRasteredImgParams(Map<String, Object> rip) {
-        for (String p : REQUIRED_RASTER_RESULT_PARAMS) {
-            if (!rip.containsKey(p)) {
-                System.out.println("Your rastering result is missing the " + p + " field.");
-                return false;
-            }
-        }
-        if (rip.containsKey("query_success")) {
-            boolean success = (boolean) rip.get("query_success");
-            if (!success) {
-                System.out.println("query_success was reported as a failure");
-                return false;
-            }
-        }
-        return true;
+    public static List<Map<String, Object>> getLocations(Region region, String locationName) {
+        return regions.graph(region).locationIndex.lookup(locationName);
     }
 
     /**
-     * Takes the route of this MapServer and converts it into an HTML friendly
+     * Takes a route and converts it into an HTML friendly
      * String to be passed to the frontend.
      */
-    private static String getDirectionsText() {
+    private static String getDirectionsText(GraphDB graph, List<Long> route) {
         List<Router.NavigationDirection> directions = Router.routeDirections(graph, route);
         if (directions == null || directions.isEmpty()) {
           return "";
@@ -0,0 +1,266 @@
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A registry of the server's metrics: histograms of latencies and other values, and
+ * counters and gauges read from the caches. scrape() renders them all in the Prometheus
+ * text format, and registerMBeans() exposes each one as a JMX MBean.
+ *
+ * Recording a value is a short scan of the bucket bounds and two LongAdder increments, with
+ * no locks or allocation, so it is cheap enough for every request. Counters and gauges are
+ * read from their sources only when scraped.
+ */
+public class Metrics {
+    /** Latency bucket bounds, from 50 microseconds to 10 seconds, in nanoseconds. */
+    static final long[] LATENCY_BOUNDS_NANOS = {50_000L, 100_000L, 250_000L, 500_000L,
+        1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L, 25_000_000L, 50_000_000L,
+        100_000_000L, 250_000_000L, 500_000_000L, 1_000_000_000L, 2_500_000_000L,
+        5_000_000_000L, 10_000_000_000L};
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /** The JMX view of a Histogram. */
+    public interface HistogramMBean {
+        /** Returns the number of values recorded. */
+        long getCount();
+
+        /** Returns the sum of the values recorded, in the histogram's unit. */
+        double getSum();
+
+        /** Returns the mean of the values recorded, in the histogram's unit. */
+        double getMean();
+    }
+
+    /**
+     * Counts recorded values in buckets with fixed upper bounds. Values are recorded as
+     * longs, such as nanoseconds, and reported divided by a scale, such as 1e9 to give
+     * seconds. Thread-safe.
+     */
+    public static class Histogram implements HistogramMBean {
+        private final long[] bounds;
+        private final double scale;
+        /** counts[i] counts the values in (bounds[i - 1], bounds[i]]; the last, the rest. */
+        private final LongAdder[] counts;
+        private final LongAdder sum = new LongAdder();
+
+        /**
+         * Creates an empty histogram.
+         * @param bounds The upper bound of each bucket, in increasing order.
+         * @param scale How many recorded units make one reported unit.
+         */
+        public Histogram(long[] bounds, double scale) {
+            this.bounds = bounds.clone();
+            this.scale = scale;
+            counts = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        /** Returns an empty histogram of durations recorded in nanoseconds, in seconds. */
+        public static Histogram latency() {
+            return new Histogram(LATENCY_BOUNDS_NANOS, NANOS_PER_SECOND);
+        }
+
+        /**
+         * Records a value.
+         * @param value The value, in recorded units.
+         */
+        public void record(long value) {
+            int i = 0;
+            while (i < bounds.length && value > bounds[i]) {
+                i++;
+            }
+            counts[i].increment();
+            sum.add(value);
+        }
+
+        /**
+         * Records the time since a System.nanoTime() reading.
+         * @param start The reading.
+         * @return The current System.nanoTime(), to start the next timing from.
+         */
+        public long recordSince(long start) {
+            long now = System.nanoTime();
+            record(now - start);
+            return now;
+        }
+
+        @Override
+        public long getCount() {
+            long count = 0;
+            for (LongAdder c : counts) {
+                count += c.sum();
+            }
+            return count;
+        }
+
+        @Override
+        public double getSum() {
+            return sum.sum() / scale;
+        }
+
+        @Override
+        public double getMean() {
+            long count = getCount();
+            return count == 0 ? 0 : getSum() / count;
+        }
+
+        /** Appends the bucket, sum and count lines of this histogram. */
+        private void writeTo(StringBuilder sb, String name, String labels) {
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            long cumulative = 0;
+            for (int i = 0; i <= bounds.length; i++) {
+                cumulative += counts[i].sum();
+                String le = i < bounds.length ? format(bounds[i] / scale) : "+Inf";
+                sb.append(name).append("_bucket{").append(prefix).append("le=\"").append(le)
+                        .append("\"} ").append(cumulative).append('\n');
+            }
+            sb.append(name).append("_sum").append(braces(labels)).append(' ')
+                    .append(format(getSum())).append('\n');
+            sb.append(name).append("_count").append(braces(labels)).append(' ')
+                    .append(cumulative).append('\n');
+        }
+    }
+
+    /** The JMX view of a counter or gauge. */
+    public interface ValueMBean {
+        /** Returns the current value. */
+        long getValue();
+    }
+
+    /** A counter or gauge, read from its source when asked. */
+    private static class Value implements ValueMBean {
+        private final LongSupplier source;
+
+        Value(LongSupplier source) {
+            this.source = source;
+        }
+
+        @Override
+        public long getValue() {
+            return source.getAsLong();
+        }
+    }
+
+    /** A registered metric: a Histogram or a Value, with its name and labels. */
+    private static class Entry {
+        final String name;
+        final String help;
+        final String type;
+        /** Prometheus labels without braces, such as endpoint="route", or "". */
+        final String labels;
+        final Object metric;
+
+        Entry(String name, String help, String type, String labels, Object metric) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labels = labels;
+            this.metric = metric;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * Registers a histogram. Histograms of the same name are shown as one metric family,
+     * told apart by their labels, and must be registered one after another.
+     * @param name The Prometheus metric name.
+     * @param help The description of the metric family.
+     * @param labels The labels of this histogram, such as endpoint="route", or "".
+     * @param histogram The histogram.
+     * @return The histogram.
+     */
+    public synchronized Histogram histogram(String name, String help, String labels,
+                                            Histogram histogram) {
+        entries.add(new Entry(name, help, "histogram", labels, histogram));
+        return histogram;
+    }
+
+    /**
+     * Registers a latency histogram; see histogram(String, String, String, Histogram).
+     * @return A new latency histogram.
+     */
+    public Histogram latency(String name, String help, String labels) {
+        return histogram(name, help, labels, Histogram.latency());
+    }
+
+    /**
+     * Registers a counter: a value that only goes up.
+     * @param name The Prometheus metric name, which should end in _total.
+     * @param help The description of the metric.
+     * @param source Reads the value.
+     */
+    public synchronized void counter(String name, String help, LongSupplier source) {
+        entries.add(new Entry(name, help, "counter", "", new Value(source)));
+    }
+
+    /**
+     * Registers a gauge: a value that goes up and down.
+     * @param name The Prometheus metric name.
+     * @param help The description of the metric.
+     * @param source Reads the value.
+     */
+    public synchronized void gauge(String name, String help, LongSupplier source) {
+        entries.add(new Entry(name, help, "gauge", "", new Value(source)));
+    }
+
+    /**
+     * Returns every metric in the Prometheus text exposition format, version 0.0.4.
+     * @return The metrics, one sample per line.
+     */
+    public synchronized String scrape() {
+        StringBuilder sb = new StringBuilder();
+        String family = null;
+        for (Entry e : entries) {
+            if (!e.name.equals(family)) {
+                sb.append("# HELP ").append(e.name).append(' ').append(e.help).append('\n');
+                sb.append("# TYPE ").append(e.name).append(' ').append(e.type).append('\n');
+                family = e.name;
+            }
+            if (e.metric instanceof Histogram) {
+                ((Histogram) e.metric).writeTo(sb, e.name, e.labels);
+            } else {
+                sb.append(e.name).append(braces(e.labels)).append(' ')
+                        .append(((Value) e.metric).getValue()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Registers every metric with the platform MBean server, under names such as
+     * domain:name=bearmaps_stage_duration_seconds,endpoint=route,stage=snap. Metrics that
+     * cannot be registered, for example because they already are, are skipped.
+     * @param domain The JMX domain.
+     */
+    public synchronized void registerMBeans(String domain) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (Entry e : entries) {
+            String labels = e.labels.isEmpty() ? "" : "," + e.labels.replace("\"", "");
+            try {
+                server.registerMBean(e.metric, new ObjectName(domain + ":name=" + e.name
+                        + labels));
+            } catch (JMException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /** Returns labels in braces, or "" if there are none. */
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    /** Formats a number without an exponent or trailing zeros. */
+    private static String format(double x) {
+        return BigDecimal.valueOf(x).stripTrailingZeros().toPlainString();
+    }
+}
@@ -0,0 +1,110 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of encoded /raster images, so that a viewport that was rendered recently
+ * is served without drawing or encoding anything.
+ *
+ * An image depends only on the tiles in its render grid and on the route drawn over them,
+ * so entries are keyed by the region, depth and tile range of the grid together with the id
+ * of the route, which is different for every route MapServer stores. Entries are evicted in least
+ * recently used order once the images take up more than the configured number of bytes.
+ * All methods are thread-safe.
+ */
+public class RasterCache {
+    private final long maxBytes;
+    /** Access-ordered, so iteration starts at the least recently used image. */
+    private final LinkedHashMap<String, byte[]> images = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates an empty cache.
+     * @param maxBytes The most bytes of encoded images to keep.
+     */
+    public RasterCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cache key for an image of one of several regions, whose tiles have the
+     * same names.
+     * @param region The name of the region of the tiles.
+     * @param renderGrid The render grid from Rasterer.raster. Its corner tiles name the
+     *                   depth and the tile range.
+     * @param routeId The id of the route drawn over the tiles, or 0 for none.
+     * @return The key.
+     */
+    public static String key(String region, String[][] renderGrid, long routeId) {
+        String[] lastRow = renderGrid[renderGrid.length - 1];
+        return region + ":" + renderGrid[0][0] + ":" + lastRow[lastRow.length - 1] + ":"
+                + routeId;
+    }
+
+    /**
+     * Returns the image cached under key.
+     * @param key The key, from key().
+     * @return The encoded image, or null if it is not cached.
+     */
+    public synchronized byte[] get(String key) {
+        byte[] image = images.get(key);
+        if (image == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return image;
+    }
+
+    /**
+     * Caches an image under key, evicting the least recently used images if necessary.
+     * Images larger than the whole cache are not stored.
+     * @param key The key, from key().
+     * @param image The encoded image. It must not be modified afterwards.
+     */
+    public synchronized void put(String key, byte[] image) {
+        if (image.length > maxBytes) {
+            return;
+        }
+        byte[] old = images.put(key, image);
+        if (old != null) {
+            bytes -= old.length;
+        }
+        bytes += image.length;
+        Iterator<byte[]> it = images.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().length;
+            it.remove();
+        }
+    }
+
+    /** Removes every image from the cache. */
+    public synchronized void clear() {
+        images.clear();
+        bytes = 0;
+    }
+
+    /** Returns the number of images in the cache. */
+    public synchronized int size() {
+        return images.size();
+    }
+
+    /** Returns the number of bytes used by the cached images. */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /** Returns the number of calls to get that found their image. */
+    public long hits() {
+        return hits.get();
+    }
+
+    /** Returns the number of calls to get that did not find their image. */
+    public long misses() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,153 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Encodes /raster images as PNG or JPEG through ImageIO, with explicit compression
+ * settings, and keeps running totals of how long encoding took and how many bytes it
+ * produced.
+ *
+ * ImageWriter is not thread-safe, so each thread keeps its own writer and reuses it for
+ * every image it encodes. Images are written straight to the given stream.
+ */
+public class RasterEncoder {
+    /** The PNG deflate level ImageIO uses when none is set. */
+    public static final int DEFAULT_PNG_LEVEL = 4;
+    public static final float DEFAULT_JPEG_QUALITY = 0.85f;
+
+    private final String format;
+    private final float quality;
+    private final ThreadLocal<ImageWriter> writers;
+
+    private final LongAdder images = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    private RasterEncoder(String format, float quality) {
+        this.format = format;
+        this.quality = quality;
+        this.writers = ThreadLocal.withInitial(() -> newWriter(format));
+        newWriter(format).dispose();
+    }
+
+    /**
+     * Returns a PNG encoder.
+     * @param level The deflate level, from 0 (fastest, largest) to 9 (slowest, smallest).
+     * @return The encoder.
+     */
+    public static RasterEncoder png(int level) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("PNG level must be in [0, 9]: " + level);
+        }
+        /* ImageIO's PNG writer turns quality q into deflate level 9 * (1 - q), rounded down. */
+        return new RasterEncoder("png", Math.max(0, 1 - (level + 0.5f) / 9));
+    }
+
+    /**
+     * Returns a JPEG encoder.
+     * @param quality The JPEG quality, from 0 (smallest) to 1 (best).
+     * @return The encoder.
+     */
+    public static RasterEncoder jpeg(float quality) {
+        if (quality < 0 || quality > 1) {
+            throw new IllegalArgumentException("JPEG quality must be in [0, 1]: " + quality);
+        }
+        return new RasterEncoder("jpeg", quality);
+    }
+
+    private static ImageWriter newWriter(String format) {
+        Iterator<ImageWriter> it = ImageIO.getImageWritersByFormatName(format);
+        if (!it.hasNext()) {
+            throw new IllegalArgumentException("No ImageIO writer for " + format);
+        }
+        return it.next();
+    }
+
+    /** Returns the image format, "png" or "jpeg", as used in data: URLs. */
+    public String format() {
+        return format;
+    }
+
+    /**
+     * Encodes img to out. Does not close out.
+     * @param img The image, of type TYPE_INT_RGB.
+     * @param out Where to write the encoded image.
+     * @throws IOException If writing to out fails.
+     */
+    public void encode(BufferedImage img, OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        ImageWriter writer = writers.get();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+        }
+        CountingOutputStream counter = new CountingOutputStream(out);
+        try (ImageOutputStream ios = new MemoryCacheImageOutputStream(counter)) {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(img, null, null), param);
+        } finally {
+            writer.reset();
+        }
+        images.increment();
+        nanos.add(System.nanoTime() - start);
+        bytes.add(counter.count);
+    }
+
+    /** Returns the number of images encoded so far. */
+    public long images() {
+        return images.sum();
+    }
+
+    /** Returns the total time spent encoding images, in nanoseconds. */
+    public long nanos() {
+        return nanos.sum();
+    }
+
+    /** Returns the total size of the encoded images, in bytes. */
+    public long bytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public String toString() {
+        long n = Math.max(1, images());
+        return String.format("RasterEncoder[%s, %d images, %.1f ms/image, %d bytes/image]",
+                format, images(), nanos() / 1e6 / n, bytes() / n);
+    }
+
+    /** Passes writes through to another stream, counting the bytes, without closing it. */
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
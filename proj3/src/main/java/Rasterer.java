@@ -5,56 +5,172 @@ import java.util.*;
  * a query result. The getMapRaster method must return a Map containing all
  * seven of the required fields, otherwise the front end code will probably
  * not draw the output correctly.
+ *
+ * Each rasterer finds tiles in the tile pyramid of one Region, by default the Berkeley map.
  */
 public class Rasterer {
 
     public static final int TILE_SIZE = 256;
-    private final List<Double> LonDPP_List = new LinkedList<>();
+    /**
+     * Tile names are kept in a table down to this depth. Deeper pyramids have too many tiles
+     * to name them all up front, so their names are built for each query.
+     */
+    private static final int MAX_NAMED_DEPTH = 8;
 
-    private final double ROOT_ULLON = -122.2998046875;
-    private final double ROOT_LRLON = -122.2119140625;
-    private final double ROOT_ULLAT = 37.892195547244356;
-    private final double ROOT_LRLAT = 37.82280243352756;
+    private final Region region;
+    private final double rootUllon;
+    private final double rootLrlon;
+    private final double rootUllat;
+    private final double rootLrlat;
 
+    /** lonDPP[depth] is the longitude per pixel of the tiles at depth. */
+    private final double[] lonDPP;
+    /**
+     * tileNames[depth][y][x] is the file name of a tile, such as d3_x1_y2.png, or null past
+     * MAX_NAMED_DEPTH. Grids share these strings, so no names are built per query, and each
+     * name's hash code, which the tile and raster caches use, is only computed once.
+     */
+    private final String[][][] tileNames;
 
+    /** Creates a rasterer for the Berkeley map. */
     public Rasterer() {
-        for (int depth = 0; depth <= 7; depth++) {
-            double lonDPP = (ROOT_LRLON - ROOT_ULLON) / (TILE_SIZE * Math.pow(2, depth));
-            LonDPP_List.add(lonDPP);
+        this(Region.BERKELEY);
+    }
+
+    /**
+     * Creates a rasterer for the tile pyramid of a region.
+     * @param region The region.
+     */
+    public Rasterer(Region region) {
+        this.region = region;
+        rootUllon = region.ulLon;
+        rootLrlon = region.lrLon;
+        rootUllat = region.ulLat;
+        rootLrlat = region.lrLat;
+        lonDPP = new double[region.maxDepth + 1];
+        tileNames = new String[region.maxDepth + 1][][];
+        for (int depth = region.minDepth; depth <= region.maxDepth; depth++) {
+            lonDPP[depth] = (rootLrlon - rootUllon) / (TILE_SIZE * Math.pow(2, depth));
+            if (depth > MAX_NAMED_DEPTH) {
+                continue;
+            }
+            int tiles = 1 << depth;
+            tileNames[depth] = new String[tiles][tiles];
+            for (int y = 0; y < tiles; y++) {
+                for (int x = 0; x < tiles; x++) {
+                    tileNames[depth][y][x] = tileName(depth, x, y);
+                }
+            }
+        }
+    }
+
+    private static String tileName(int depth, int x, int y) {
+        return "d" + depth + "_x" + x + "_y" + y + ".png";
+    }
+
+    /** Returns the region whose tiles this rasterer finds. */
+    public Region region() {
+        return region;
+    }
+
+    /**
+     * The result of rastering a query box: the grid of tiles that covers it, and the
+     * bounding box and depth of those tiles.
+     */
+    public static class Raster {
+        /** The result of a query box that does not overlap the map. */
+        public static final Raster FAILED = new Raster(null, null, 0, 0, 0, 0, 0, 0, 0, false);
+
+        /** The region of the tiles, or null for FAILED. */
+        public final Region region;
+
+        /** The file names of the tiles, by row and then column. */
+        public final String[][] renderGrid;
+        public final double ulLon;
+        public final double ulLat;
+        public final double lrLon;
+        public final double lrLat;
+        public final int depth;
+        /** The column and row of the upper left tile among the tiles at depth. */
+        public final int firstX;
+        public final int firstY;
+        public final boolean querySuccess;
+
+        Raster(Region region, String[][] renderGrid, double ulLon, double ulLat, double lrLon,
+               double lrLat, int depth, int firstX, int firstY, boolean querySuccess) {
+            this.region = region;
+            this.renderGrid = renderGrid;
+            this.ulLon = ulLon;
+            this.ulLat = ulLat;
+            this.lrLon = lrLon;
+            this.lrLat = lrLat;
+            this.depth = depth;
+            this.firstX = firstX;
+            this.firstY = firstY;
+            this.querySuccess = querySuccess;
+        }
+
+        /** Returns the width of the rastered image in pixels. */
+        public int width() {
+            return renderGrid[0].length * TILE_SIZE;
+        }
+
+        /** Returns the height of the rastered image in pixels. */
+        public int height() {
+            return renderGrid.length * TILE_SIZE;
+        }
+
+        /**
+         * Returns the fields of the /raster response, as described for getMapRaster.
+         * @return A new map, with only query_success if the query failed.
+         */
+        public Map<String, Object> toMap() {
+            Map<String, Object> results = new HashMap<>();
+            results.put("query_success", querySuccess);
+            if (!querySuccess) {
+                return results;
+            }
+            results.put("render_grid", renderGrid);
+            results.put("raster_ul_lon", ulLon);
+            results.put("raster_ul_lat", ulLat);
+            results.put("raster_lr_lon", lrLon);
+            results.put("raster_lr_lat", lrLat);
+            results.put("depth", depth);
+            return results;
         }
     }
 
     private double lonPerTile(int depth) {
-        return (ROOT_LRLON - ROOT_ULLON) / (1 << depth);
+        return (rootLrlon - rootUllon) / (1 << depth);
     }
 
     private double latPerTile(int depth) {
-        return (ROOT_ULLAT - ROOT_LRLAT) / (1 << depth);
+        return (rootUllat - rootLrlat) / (1 << depth);
     }
 
     private double tileUllon(int x,int depth) {
-        return ROOT_ULLON + x * lonPerTile(depth);
+        return rootUllon + x * lonPerTile(depth);
     }
 
     private double tileLrlon(int x,int depth) {
-        return ROOT_ULLON + (x + 1) * lonPerTile(depth);
+        return rootUllon + (x + 1) * lonPerTile(depth);
     }
 
     private double tileUllat(int y,int depth) {
-        return ROOT_ULLAT - y * latPerTile(depth);
+        return rootUllat - y * latPerTile(depth);
     }
 
     private double tileLrlat(int y,int depth) {
-        return ROOT_ULLAT - (y + 1) * latPerTile(depth);
+        return rootUllat - (y + 1) * latPerTile(depth);
     }
 
     private int getDepth(double queryLonDPP) {
-        for (int i = 0; i < 8; i++) {
-            if (LonDPP_List.get(i) <= queryLonDPP || i == 7) {
-                return i;
+        for (int depth = region.minDepth; depth < region.maxDepth; depth++) {
+            if (lonDPP[depth] <= queryLonDPP) {
+                return depth;
             }
         }
-        return 7;
+        return region.maxDepth;
     }
 
 
@@ -87,29 +203,36 @@ public class Rasterer {
      *                    forget to set this to true on success! <br>
      */
     public Map<String, Object> getMapRaster(Map<String, Double> params) {
+        return raster(params.get("ullon"), params.get("ullat"), params.get("lrlon"),
+                params.get("lrlat"), params.get("w"), params.get("h")).toMap();
+    }
 
-        Map<String, Object> results = new HashMap<>();
-        double w = params.get("w");
-        double h = params.get("h");
-        double ullon = params.get("ullon");
-        double ullat = params.get("ullat");
-        double lrlon = params.get("lrlon");
-        double lrlat = params.get("lrlat");
-
-        boolean query_success = !(lrlon <= ROOT_ULLON) && !(ullon >= ROOT_LRLON) && !(ullat <= ROOT_LRLAT) && !(lrlat >= ROOT_ULLAT) && !(ullon >= lrlon) && !(ullat <= lrlat);
+    /**
+     * Finds the grid of tiles that best matches a query box, as getMapRaster does, without
+     * boxing anything. Only the returned Raster and its grid are allocated.
+     * @param ullon The upper left longitude of the query box.
+     * @param ullat The upper left latitude of the query box.
+     * @param lrlon The lower right longitude of the query box.
+     * @param lrlat The lower right latitude of the query box.
+     * @param w The width of the user viewport in pixels.
+     * @param h The height of the user viewport in pixels.
+     * @return The raster, or Raster.FAILED if the query box does not overlap the region.
+     */
+    public Raster raster(double ullon, double ullat, double lrlon, double lrlat, double w,
+                         double h) {
+        boolean query_success = !(lrlon <= rootUllon) && !(ullon >= rootLrlon) && !(ullat <= rootLrlat) && !(lrlat >= rootUllat) && !(ullon >= lrlon) && !(ullat <= lrlat);
 
         if (!query_success) {
-            results.put("query_success", false);
-            return results;
+            return Raster.FAILED;
         }
 
         double LonDPP = (lrlon - ullon) / w;
         int depth = getDepth(LonDPP);
 
-        int xStart = (int) Math.floor((ullon - ROOT_ULLON) / lonPerTile(depth));
-        int xEnd = (int) Math.floor((lrlon - ROOT_ULLON) / lonPerTile(depth));
-        int yStart = (int) Math.floor((ROOT_ULLAT - ullat) / latPerTile(depth));
-        int yEnd = (int) Math.floor((ROOT_ULLAT - lrlat) / latPerTile(depth));
+        int xStart = (int) Math.floor((ullon - rootUllon) / lonPerTile(depth));
+        int xEnd = (int) Math.floor((lrlon - rootUllon) / lonPerTile(depth));
+        int yStart = (int) Math.floor((rootUllat - ullat) / latPerTile(depth));
+        int yEnd = (int) Math.floor((rootUllat - lrlat) / latPerTile(depth));
         xStart = Math.max(0, xStart);
         xEnd = Math.min((1 << depth) - 1, xEnd);
         yStart = Math.max(0, yStart);
@@ -120,21 +243,21 @@ public class Rasterer {
         double raster_ul_lat = tileUllat(yStart,depth);
         double raster_lr_lat = tileLrlat(yEnd,depth);
 
-        String[][] render_grid = new String[yEnd - yStart + 1][xEnd - xStart + 1];
+        String[][] render_grid = new String[yEnd - yStart + 1][];
         for (int y = yStart; y <= yEnd; y++) {
+            if (tileNames[depth] != null) {
+                render_grid[y - yStart] = Arrays.copyOfRange(tileNames[depth][y], xStart,
+                        xEnd + 1);
+                continue;
+            }
+            String[] row = new String[xEnd - xStart + 1];
             for (int x = xStart; x <= xEnd; x++) {
-                render_grid[y - yStart][x - xStart] =
-                        "d" + depth + "_x" + x + "_y" + y + ".png";
+                row[x - xStart] = tileName(depth, x, y);
             }
+            render_grid[y - yStart] = row;
         }
 
-        results.put("render_grid", render_grid);
-        results.put("raster_ul_lon", raster_ul_lon);
-        results.put("raster_ul_lat", raster_ul_lat);
-        results.put("raster_lr_lon", raster_lr_lon);
-        results.put("raster_lr_lat", raster_lr_lat);
-        results.put("depth", depth);
-        results.put("query_success", query_success);
-        return results;
+        return new Raster(region, render_grid, raster_ul_lon, raster_ul_lat, raster_lr_lon,
+                raster_lr_lat, depth, xStart, yStart, true);
     }
 }
@@ -0,0 +1,173 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+/**
+ * A map region that the server can serve, such as a city: the bounding box of its root
+ * tile, the range of depths in its tile pyramid, the folder its tiles are in and the OSM
+ * file its graph is built from. A region only describes where these are; Regions loads
+ * them when they are first needed.
+ *
+ * The tile at depth d, column x and row y of a region is the file d{d}_x{x}_y{y}.png in its
+ * tile folder, and covers 1 / 2^d of the width and height of the root tile.
+ */
+public class Region {
+    /**
+     * The Berkeley map, served when no regions are configured. Its OSM file was downloaded
+     * from <a href="http://download.bbbike.org/osm/">here</a> using custom region selection.
+     */
+    public static final Region BERKELEY = new Region("berkeley", MapServer.ROOT_ULLON,
+            MapServer.ROOT_ULLAT, MapServer.ROOT_LRLON, MapServer.ROOT_LRLAT, 0, 7,
+            "../library-sp18/data/proj3_imgs/", "../library-sp18/data/berkeley-2018.osm.xml");
+
+    /** The name of the region, which requests may use to ask for it. */
+    public final String name;
+    /** The bounding box of the root tile. Longitude == x-axis; latitude == y-axis. */
+    public final double ulLon;
+    public final double ulLat;
+    public final double lrLon;
+    public final double lrLat;
+    /** The shallowest and deepest levels of tiles in the tile folder. */
+    public final int minDepth;
+    public final int maxDepth;
+    /** The folder the tile images are in, ending with a separator. */
+    public final String tileRoot;
+    /** The OSM XML file of the region's graph. */
+    public final String osmPath;
+
+    /**
+     * Creates a region.
+     * @throws IllegalArgumentException If the bounding box is empty or the depths are not
+     *                                  0 &lt;= minDepth &lt;= maxDepth &lt;= 30.
+     */
+    public Region(String name, double ulLon, double ulLat, double lrLon, double lrLat,
+                  int minDepth, int maxDepth, String tileRoot, String osmPath) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("A region needs a name.");
+        }
+        if (!(ulLon < lrLon) || !(lrLat < ulLat)) {
+            throw new IllegalArgumentException("Region " + name + " has an empty bounding box.");
+        }
+        if (minDepth < 0 || minDepth > maxDepth || maxDepth > 30) {
+            throw new IllegalArgumentException("Region " + name + " has depths " + minDepth
+                    + " to " + maxDepth + ".");
+        }
+        if (tileRoot == null || osmPath == null) {
+            throw new IllegalArgumentException("Region " + name + " needs tiles and an osm file.");
+        }
+        this.name = name;
+        this.ulLon = ulLon;
+        this.ulLat = ulLat;
+        this.lrLon = lrLon;
+        this.lrLat = lrLat;
+        this.minDepth = minDepth;
+        this.maxDepth = maxDepth;
+        this.tileRoot = tileRoot.endsWith("/") || tileRoot.endsWith(File.separator) ? tileRoot
+                : tileRoot + File.separator;
+        this.osmPath = osmPath;
+    }
+
+    /** A region as written in a regions file; see load(String). */
+    private static class Config {
+        String name;
+        double ullon;
+        double ullat;
+        double lrlon;
+        double lrlat;
+        int minDepth;
+        int maxDepth;
+        String tiles;
+        String osm;
+    }
+
+    /**
+     * Reads the regions of a Json file, which holds an array with an object for each region,
+     * such as<br>
+     * {"name": "berkeley", "ullon": -122.2998046875, "ullat": 37.892195547244356,
+     * "lrlon": -122.2119140625, "lrlat": 37.82280243352756, "min_depth": 0, "max_depth": 7,
+     * "tiles": "../library-sp18/data/proj3_imgs/",
+     * "osm": "../library-sp18/data/berkeley-2018.osm.xml"}<br>
+     * min_depth may be left out, and is then 0. Relative paths are relative to the working
+     * directory, as MapServer's own paths are.
+     * @param path The file.
+     * @return The regions, in the order of the file.
+     * @throws IOException If the file cannot be read.
+     * @throws IllegalArgumentException If the file does not describe at least one region,
+     *                                  or two regions have the same name.
+     */
+    public static List<Region> load(String path) throws IOException {
+        Gson gson = new GsonBuilder()
+                .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES).create();
+        Config[] configs;
+        try (Reader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            configs = gson.fromJson(reader, Config[].class);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Cannot parse the regions in " + path, e);
+        }
+        if (configs == null || configs.length == 0) {
+            throw new IllegalArgumentException("There are no regions in " + path);
+        }
+        List<Region> regions = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (Config c : configs) {
+            Region region = new Region(c.name, c.ullon, c.ullat, c.lrlon, c.lrlat, c.minDepth,
+                    c.maxDepth, c.tiles, c.osm);
+            if (!names.add(region.name)) {
+                throw new IllegalArgumentException("There are two regions named " + region.name
+                        + " in " + path);
+            }
+            regions.add(region);
+        }
+        return regions;
+    }
+
+    /**
+     * Returns how far the point is from the bounding box of the region, in degrees, or 0 if
+     * it is inside.
+     */
+    public double distance(double lon, double lat) {
+        double dLon = Math.max(0, Math.max(ulLon - lon, lon - lrLon));
+        double dLat = Math.max(0, Math.max(lrLat - lat, lat - ulLat));
+        return Math.sqrt(dLon * dLon + dLat * dLat);
+    }
+
+    /**
+     * Returns the area, in square degrees, of the part of a query box that is in the
+     * bounding box of the region.
+     */
+    public double overlap(double ullon, double ullat, double lrlon, double lrlat) {
+        double width = Math.min(lrlon, lrLon) - Math.max(ullon, ulLon);
+        double height = Math.min(ullat, ulLat) - Math.max(lrlat, lrLat);
+        return width > 0 && height > 0 ? width * height : 0;
+    }
+
+    /**
+     * Returns the image file of a tile of the region.
+     * @return The file, or null if the region has no such tile.
+     */
+    public File tileFile(int depth, int x, int y) {
+        if (depth < minDepth || depth > maxDepth || x < 0 || x >= 1 << depth || y < 0
+                || y >= 1 << depth) {
+            return null;
+        }
+        File tile = new File(tileRoot + "d" + depth + "_x" + x + "_y" + y + ".png");
+        return tile.isFile() ? tile : null;
+    }
+
+    @Override
+    public String toString() {
+        return "Region[" + name + "]";
+    }
+}
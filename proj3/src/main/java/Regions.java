@@ -0,0 +1,214 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The regions a server serves, and what it has loaded for each. A region's graph and its
+ * tiles are loaded separately, each the first time a request needs it, so a server with
+ * many regions starts quickly and only spends memory on the regions it is asked about.
+ *
+ * All methods are thread-safe. A request for a graph or tiles that are being loaded waits
+ * for them, but requests for other regions, and for the tiles of a region whose graph is
+ * loading, do not. If loading fails, the next request tries again.
+ */
+public class Regions {
+    /** A region's graph and the indexes built from it. */
+    public static class Graph {
+        public final GraphDB graph;
+        public final LocationIndex locationIndex;
+        public final IsochroneCache isochrones;
+
+        public Graph(GraphDB graph, LocationIndex locationIndex, IsochroneCache isochrones) {
+            this.graph = graph;
+            this.locationIndex = locationIndex;
+            this.isochrones = isochrones;
+        }
+    }
+
+    /** A region's tile pyramid, and the cache of its decoded tiles. */
+    public static class Tiles {
+        public final Rasterer rasterer;
+        public final TileCache cache;
+
+        public Tiles(Rasterer rasterer, TileCache cache) {
+            this.rasterer = rasterer;
+            this.cache = cache;
+        }
+    }
+
+    /** A region and what has been loaded for it so far. */
+    private static class Loaded {
+        final Region region;
+        /* Each is locked only while it loads, so tiles never wait for a graph. */
+        final Object graphLock = new Object();
+        final Object tilesLock = new Object();
+        volatile Graph graph;
+        volatile Tiles tiles;
+
+        Loaded(Region region) {
+            this.region = region;
+        }
+    }
+
+    private final List<Region> regions;
+    /** Never changed after the constructor, so it is read without locking. */
+    private final Map<String, Loaded> byName = new LinkedHashMap<>();
+    private final Function<Region, Graph> graphLoader;
+    private final Function<Region, Tiles> tilesLoader;
+
+    /**
+     * Creates a set of regions with nothing loaded.
+     * @param regions The regions, the first of which is the default. Their names must
+     *                differ.
+     * @param graphLoader Loads the graph of a region.
+     * @param tilesLoader Loads the tiles of a region.
+     * @throws IllegalArgumentException If there are no regions, or two have the same name.
+     */
+    public Regions(List<Region> regions, Function<Region, Graph> graphLoader,
+                   Function<Region, Tiles> tilesLoader) {
+        if (regions.isEmpty()) {
+            throw new IllegalArgumentException("There must be at least one region.");
+        }
+        for (Region region : regions) {
+            if (byName.put(region.name, new Loaded(region)) != null) {
+                throw new IllegalArgumentException("There are two regions named "
+                        + region.name + ".");
+            }
+        }
+        this.regions = Collections.unmodifiableList(new ArrayList<>(regions));
+        this.graphLoader = graphLoader;
+        this.tilesLoader = tilesLoader;
+    }
+
+    /** Returns every region, in the order given to the constructor. */
+    public List<Region> all() {
+        return regions;
+    }
+
+    /** Returns the default region, which serves requests that are in no region. */
+    public Region first() {
+        return regions.get(0);
+    }
+
+    /**
+     * Returns the region with the given name.
+     * @return The region, or null if there is none.
+     */
+    public Region get(String name) {
+        Loaded l = byName.get(name);
+        return l == null ? null : l.region;
+    }
+
+    /**
+     * Returns the region that a point is in, or if it is in none, the nearest region.
+     * Where regions overlap, the first one listed wins.
+     */
+    public Region at(double lon, double lat) {
+        Region nearest = null;
+        double best = Double.POSITIVE_INFINITY;
+        for (Region region : regions) {
+            double distance = region.distance(lon, lat);
+            if (distance < best) {
+                nearest = region;
+                best = distance;
+            }
+            if (distance == 0) {
+                break;
+            }
+        }
+        return nearest == null ? first() : nearest;
+    }
+
+    /**
+     * Returns the region that covers the most of a query box, or the default region if the
+     * box is in none. Where regions cover the same amount, the first one listed wins.
+     */
+    public Region covering(double ullon, double ullat, double lrlon, double lrlat) {
+        Region covering = first();
+        double best = 0;
+        for (Region region : regions) {
+            double overlap = region.overlap(ullon, ullat, lrlon, lrlat);
+            if (overlap > best) {
+                covering = region;
+                best = overlap;
+            }
+        }
+        return covering;
+    }
+
+    /**
+     * Returns the graph of a region, loading it if this is the first time it is asked for.
+     * @param region One of the regions.
+     * @return The graph.
+     */
+    public Graph graph(Region region) {
+        Loaded l = loaded(region);
+        Graph graph = l.graph;
+        if (graph == null) {
+            synchronized (l.graphLock) {
+                graph = l.graph;
+                if (graph == null) {
+                    graph = graphLoader.apply(region);
+                    l.graph = graph;
+                }
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Returns the tiles of a region, loading them if this is the first time they are asked
+     * for.
+     * @param region One of the regions.
+     * @return The tiles.
+     */
+    public Tiles tiles(Region region) {
+        Loaded l = loaded(region);
+        Tiles tiles = l.tiles;
+        if (tiles == null) {
+            synchronized (l.tilesLock) {
+                tiles = l.tiles;
+                if (tiles == null) {
+                    tiles = tilesLoader.apply(region);
+                    l.tiles = tiles;
+                }
+            }
+        }
+        return tiles;
+    }
+
+    private Loaded loaded(Region region) {
+        Loaded l = byName.get(region.name);
+        if (l == null || l.region != region) {
+            throw new IllegalArgumentException(region + " is not one of these regions.");
+        }
+        return l;
+    }
+
+    /** Returns the graphs that have been loaded so far. */
+    public List<Graph> loadedGraphs() {
+        List<Graph> graphs = new ArrayList<>();
+        for (Loaded l : byName.values()) {
+            Graph graph = l.graph;
+            if (graph != null) {
+                graphs.add(graph);
+            }
+        }
+        return graphs;
+    }
+
+    /** Returns the tiles that have been loaded so far. */
+    public List<Tiles> loadedTiles() {
+        List<Tiles> loadedTiles = new ArrayList<>();
+        for (Loaded l : byName.values()) {
+            Tiles tiles = l.tiles;
+            if (tiles != null) {
+                loadedTiles.add(tiles);
+            }
+        }
+        return loadedTiles;
+    }
+}
@@ -0,0 +1,117 @@
+import java.awt.BasicStroke;
+import java.awt.Graphics2D;
+import java.awt.geom.Path2D;
+import java.util.List;
+
+/**
+ * The coordinates of a route, copied out of the graph once when the route is found, so
+ * that it can be drawn over any number of rastered images.
+ *
+ * Drawing skips the segments that lie entirely outside the image, and draws the rest as
+ * polylines in a single Path2D, so panning around a small part of a long route only pays
+ * for the part that is visible.
+ */
+public class RouteOverlay {
+    /** An overlay with no route. */
+    public static final RouteOverlay EMPTY = new RouteOverlay(new double[0], new double[0]);
+
+    private final double[] lons;
+    private final double[] lats;
+    /** The bounding box of the whole route. */
+    private final double minLon, maxLon, minLat, maxLat;
+
+    private RouteOverlay(double[] lons, double[] lats) {
+        this.lons = lons;
+        this.lats = lats;
+        double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < lons.length; i++) {
+            minLon = Math.min(minLon, lons[i]);
+            maxLon = Math.max(maxLon, lons[i]);
+            minLat = Math.min(minLat, lats[i]);
+            maxLat = Math.max(maxLat, lats[i]);
+        }
+        this.minLon = minLon;
+        this.maxLon = maxLon;
+        this.minLat = minLat;
+        this.maxLat = maxLat;
+    }
+
+    /**
+     * Returns the overlay for a route.
+     * @param g The graph the route is in.
+     * @param route The ids of the vertices on the route, in order.
+     * @return The overlay.
+     */
+    public static RouteOverlay of(GraphDB g, List<Long> route) {
+        if (route == null || route.size() < 2) {
+            return EMPTY;
+        }
+        double[] lons = new double[route.size()];
+        double[] lats = new double[route.size()];
+        int i = 0;
+        for (long id : route) {
+            int v = g.index(id);
+            lons[i] = g.lons[v];
+            lats[i] = g.lats[v];
+            i++;
+        }
+        return new RouteOverlay(lons, lats);
+    }
+
+    /** Returns true if there is no route to draw. */
+    public boolean isEmpty() {
+        return lons.length < 2;
+    }
+
+    /**
+     * Draws the route onto an image covering the given bounding box, with the graphics'
+     * current color and stroke.
+     * @param g2d The graphics of the image.
+     * @param ullon The upper left longitude of the image.
+     * @param ullat The upper left latitude of the image.
+     * @param lrlon The lower right longitude of the image.
+     * @param lrlat The lower right latitude of the image.
+     * @param width The width of the image in pixels.
+     * @param height The height of the image in pixels.
+     */
+    public void draw(Graphics2D g2d, double ullon, double ullat, double lrlon, double lrlat,
+                     int width, int height) {
+        if (isEmpty()) {
+            return;
+        }
+        final double wdpp = (lrlon - ullon) / width;
+        final double hdpp = (ullat - lrlat) / height;
+        /* Widen the box by the stroke, so segments just outside it still draw their edge. */
+        float strokeWidth = g2d.getStroke() instanceof BasicStroke
+                ? ((BasicStroke) g2d.getStroke()).getLineWidth() : 0;
+        double west = ullon - strokeWidth * wdpp;
+        double east = lrlon + strokeWidth * wdpp;
+        double north = ullat + strokeWidth * hdpp;
+        double south = lrlat - strokeWidth * hdpp;
+        if (maxLon < west || minLon > east || maxLat < south || minLat > north) {
+            return;
+        }
+
+        Path2D.Double path = new Path2D.Double(Path2D.WIND_NON_ZERO, lons.length);
+        boolean penDown = false;
+        for (int i = 1; i < lons.length; i++) {
+            boolean visible = Math.max(lons[i - 1], lons[i]) >= west
+                    && Math.min(lons[i - 1], lons[i]) <= east
+                    && Math.max(lats[i - 1], lats[i]) >= south
+                    && Math.min(lats[i - 1], lats[i]) <= north;
+            if (!visible) {
+                penDown = false;
+                continue;
+            }
+            if (!penDown) {
+                path.moveTo((int) ((lons[i - 1] - ullon) * (1 / wdpp)),
+                            (int) ((ullat - lats[i - 1]) * (1 / hdpp)));
+                penDown = true;
+            }
+            path.lineTo((int) ((lons[i] - ullon) * (1 / wdpp)),
+                        (int) ((ullat - lats[i]) * (1 / hdpp)));
+        }
+        g2d.draw(path);
+    }
+}
@@ -0,0 +1,143 @@
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The routes found by /route, each kept under a random token that the client sends back
+ * with its /raster and /clear_route requests, so that every client sees only its own route.
+ *
+ * Routes are dropped once they have not been used for the configured time to live, and the
+ * least recently used routes are dropped once there are more than the configured number.
+ * All methods are thread-safe.
+ */
+public class RouteStore {
+    private final int maxRoutes;
+    private final long ttlNanos;
+    /** Access-ordered, so iteration starts at the least recently used route. */
+    private final LinkedHashMap<String, Route> routes = new LinkedHashMap<>(64, 0.75f, true);
+
+    private final SecureRandom random = new SecureRandom();
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    /**
+     * A stored route. Its path and overlay never change, so a request can keep using a
+     * route after it has been dropped from the store.
+     */
+    public static class Route {
+        /** No route, as drawn for requests without a token or with an unknown one. */
+        public static final Route EMPTY = new Route(0, null,
+                Collections.<Long>emptyList(), RouteOverlay.EMPTY);
+
+        /** Unique among the routes of a store, and 0 for EMPTY; for keying rastered images. */
+        public final long id;
+        /** The token the route is stored under, or null for EMPTY. */
+        public final String token;
+        /** The ids of the vertices on the route, in order. */
+        public final List<Long> path;
+        /** The coordinates of the route, for drawing it on rastered images. */
+        public final RouteOverlay overlay;
+        private long lastUsed;
+
+        private Route(long id, String token, List<Long> path, RouteOverlay overlay) {
+            this.id = id;
+            this.token = token;
+            this.path = path;
+            this.overlay = overlay;
+        }
+    }
+
+    /**
+     * Creates an empty store.
+     * @param maxRoutes The most routes to keep.
+     * @param ttlSeconds How long a route is kept after it was last used.
+     */
+    public RouteStore(int maxRoutes, long ttlSeconds) {
+        this.maxRoutes = maxRoutes;
+        this.ttlNanos = ttlSeconds * 1_000_000_000L;
+    }
+
+    /**
+     * Stores a route under a new token.
+     * @param g The graph the route is in.
+     * @param path The ids of the vertices on the route, in order. It must not be modified
+     *             afterwards.
+     * @return The stored route, with its token.
+     */
+    public Route add(GraphDB g, List<Long> path) {
+        byte[] bytes = new byte[12];
+        random.nextBytes(bytes);
+        StringBuilder token = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            token.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+        /* The overlay is built outside the lock. */
+        Route route = new Route(nextId.getAndIncrement(), token.toString(), path,
+                RouteOverlay.of(g, path));
+        long now = System.nanoTime();
+        synchronized (this) {
+            route.lastUsed = now;
+            routes.put(route.token, route);
+            evict(now);
+        }
+        return route;
+    }
+
+    /**
+     * Returns the route stored under token, and counts this as a use of it.
+     * @param token The token, which may be null.
+     * @return The route, or Route.EMPTY if token is null, unknown or expired.
+     */
+    public synchronized Route get(String token) {
+        if (token == null) {
+            return Route.EMPTY;
+        }
+        long now = System.nanoTime();
+        Route route = routes.get(token);
+        if (route == null || now - route.lastUsed > ttlNanos) {
+            /* get moved an expired route to the most recently used end, where evict would
+             * never reach it. */
+            if (route != null) {
+                routes.remove(token);
+            }
+            evict(now);
+            return Route.EMPTY;
+        }
+        route.lastUsed = now;
+        return route;
+    }
+
+    /**
+     * Removes the route stored under token, if there is one.
+     * @param token The token, which may be null.
+     */
+    public synchronized void remove(String token) {
+        if (token != null) {
+            routes.remove(token);
+        }
+    }
+
+    /** Returns the number of routes stored, including expired ones not yet dropped. */
+    public synchronized int size() {
+        return routes.size();
+    }
+
+    /** Drops expired routes, then the least recently used ones while there are too many. */
+    private void evict(long now) {
+        Iterator<Route> it = routes.values().iterator();
+        int size = routes.size();
+        while (it.hasNext()) {
+            Route route = it.next();
+            if (size > maxRoutes || now - route.lastUsed > ttlNanos) {
+                it.remove();
+                size--;
+            } else {
+                /* Later routes were used more recently, so they have not expired either. */
+                break;
+            }
+        }
+    }
+}
@@ -1,10 +1,14 @@
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * This class provides a shortestPath method for finding routes between two points
- * on the map. Start by using Dijkstra's, and if your code isn't fast enough for your
+ * on the map, and a distanceMatrix method for the distances between many points.
+ * Start by using Dijkstra's, and if your code isn't fast enough for your
  * satisfaction (or the autograder), upgrade your implementation by switching it to A*.
  * Your code will probably not be fast enough to pass the autograder unless you use A*.
  * The difference between A* and Dijkstra's is only a couple of lines of code, and boils
@@ -12,24 +16,27 @@ import java.util.regex.Pattern;
  */
 public class Router {
 
-    private static class NodeState implements Comparable<NodeState> {
-        long ID;
-        double dist;
-        double priority;
-
-        NodeState(long ID,double dist,double priority) {
-            this.ID = ID;
-            this.dist = dist;
-            this.priority = priority;
-        }
-
-        @Override
-        public int compareTo(NodeState o) {
-            return Double.compare(this.priority,o.priority);
-        }
+    /** The algorithms shortestPath can use. All of them return a shortest path. */
+    public enum Strategy {
+        /** A* with the great-circle distance heuristic. */
+        ASTAR,
+        /** A* from both ends at once, with the average of the two distance heuristics. */
+        BIDIRECTIONAL_ASTAR,
+        /** A* with landmark lower bounds (ALT) as well as the great-circle distance. */
+        ALT,
+        /** Bidirectional upward search over the graph's contraction hierarchy. */
+        CONTRACTION_HIERARCHY
     }
 
+    /** What a shortest path minimizes. */
+    public enum Weight {
+        /** The length of the path in miles. */
+        DISTANCE,
+        /** The seconds the path takes at the speed limits of its ways; see TravelTimes. */
+        TRAVEL_TIME
+    }
 
+    private static final double SECONDS_PER_HOUR = 3600;
 
     /**
      * Return a List of longs representing the shortest path from the node
@@ -44,53 +51,322 @@ public class Router {
      */
     public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
                                           double destlon, double destlat) {
-        long stId = g.closest(stlon,stlat);
-        long destId = g.closest(destlon,destlat);
+        return shortestPath(g, stlon, stlat, destlon, destlat, Strategy.ASTAR);
+    }
+
+    /**
+     * Return a List of longs representing the shortest path from the node
+     * closest to a start location and the node closest to the destination
+     * location, found with the given strategy.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @param strategy The search algorithm to use.
+     * @return A list of node id's in the order visited on the shortest path.
+     */
+    public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
+                                          double destlon, double destlat, Strategy strategy) {
+        return shortestPath(g, stlon, stlat, destlon, destlat, strategy, Weight.DISTANCE);
+    }
+
+    /**
+     * Return a List of longs representing the path from the node closest to a start
+     * location to the node closest to the destination location that minimizes the given
+     * weight, found with the given strategy. The ALT and CONTRACTION_HIERARCHY strategies
+     * are built on distances, so they only support Weight.DISTANCE.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @param strategy The search algorithm to use.
+     * @param weight What the path minimizes.
+     * @return A list of node id's in the order visited on the shortest path.
+     * @throws IllegalArgumentException If strategy does not support weight.
+     */
+    public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
+                                          double destlon, double destlat, Strategy strategy,
+                                          Weight weight) {
+        int st = g.index(g.closest(stlon,stlat));
+        int dest = g.index(g.closest(destlon,destlat));
+        return shortestPath(g, st, dest, strategy, weight);
+    }
 
-        Map<Long,Double> distTo = new HashMap<>();
-        Map<Long,Long> edgeTo = new HashMap<>();
-        PriorityQueue<NodeState> pq = new PriorityQueue<>();
+    /**
+     * Returns the shortest path between two vertices, for callers that have already
+     * snapped the start and destination locations with GraphDB.closest.
+     * @param g The graph to use.
+     * @param st The dense index of the start vertex.
+     * @param dest The dense index of the destination vertex.
+     * @param strategy The search algorithm to use.
+     * @param weight What the path minimizes.
+     * @return A list of node id's in the order visited on the shortest path, or an empty
+     * list if st or dest is negative, as it is when the graph has no vertices.
+     * @throws IllegalArgumentException If strategy does not support weight.
+     */
+    static List<Long> shortestPath(GraphDB g, int st, int dest, Strategy strategy,
+                                   Weight weight) {
+        checkSupported(strategy, weight);
+        if (st < 0 || dest < 0) {
+            return Collections.emptyList();
+        }
+        /* Travel times are bounded below by the great-circle distance at the top speed. */
+        float[] weights = weight == Weight.TRAVEL_TIME ? g.edgeTimes : g.edgeLengths;
+        double scale = weight == Weight.TRAVEL_TIME ? SECONDS_PER_HOUR / g.maxSpeed : 1;
+        switch (strategy) {
+            case BIDIRECTIONAL_ASTAR:
+                return bidirectionalAStar(g, st, dest, weights, scale);
+            case ALT:
+                return aStar(g, st, dest, g.landmarks(), weights, scale);
+            case CONTRACTION_HIERARCHY:
+                return g.contractionHierarchy().shortestPath(g, st, dest);
+            case ASTAR:
+            default:
+                return aStar(g, st, dest, null, weights, scale);
+        }
+    }
 
-        for (long id : g.vertices()) {
-            distTo.put(id,Double.POSITIVE_INFINITY);
+    /**
+     * Checks that shortestPath can minimize weight with strategy.
+     * @throws IllegalArgumentException If it cannot.
+     */
+    static void checkSupported(Strategy strategy, Weight weight) {
+        if (weight != Weight.DISTANCE
+                && (strategy == Strategy.ALT || strategy == Strategy.CONTRACTION_HIERARCHY)) {
+            throw new IllegalArgumentException(strategy + " only supports " + Weight.DISTANCE);
         }
-        distTo.put(stId,0.0);
-        pq.add(new NodeState(stId,0.0,heuristic(g,stId,destId)));
+    }
+
+    /**
+     * A* from st to dest over the given edge weights. Uses the larger of the great-circle
+     * distance and, if landmarks is not null, the landmark lower bound as the heuristic,
+     * multiplied by scale to turn miles into the units of weights.
+     */
+    private static List<Long> aStar(GraphDB g, int st, int dest, Landmarks landmarks,
+                                    float[] weights, double scale) {
+        SearchContext ctx = SearchContext.get(g);
+        IndexedMinPQ pq = ctx.pq;
+        ctx.update(st, 0.0, -1);
+        pq.insertOrDecrease(st,scale * heuristic(g,st,dest,landmarks));
 
         while (!pq.isEmpty()) {
-            NodeState curr = pq.remove();
-            long v = curr.ID;
+            int v = pq.deleteMin();
+            ctx.settled++;
 
-            if (v == destId) {
-                return buildPath(edgeTo,stId,destId);
+            if (v == dest) {
+                return buildPath(g,ctx.edgeTo,st,dest);
             }
 
-            for (long neigh : g.adjacent(v)) {
-                double newDist = distTo.get(v) + g.distance(v,neigh);
-                if (newDist < distTo.get(neigh)) {
-                    distTo.put(neigh, newDist);
-                    edgeTo.put(neigh, v);
-                    double priority = newDist + heuristic(g, neigh, destId);
-                    pq.add(new NodeState(neigh, newDist, priority));
+            double dist = ctx.distTo[v];
+            for (int e = g.offsets[v]; e < g.offsets[v + 1]; e++) {
+                int neigh = g.targets[e];
+                double newDist = dist + weights[e];
+                if (newDist < ctx.dist(neigh)) {
+                    ctx.update(neigh, newDist, v);
+                    pq.insertOrDecrease(neigh,
+                            newDist + scale * heuristic(g, neigh, dest, landmarks));
                 }
             }
         }
         return new ArrayList<>();
     }
 
-    private static double heuristic(GraphDB g,long s,long v) {
-        return g.distance(s,v);
+    /**
+     * Bidirectional A*. The forward search is keyed by d(v) + p(v) and the backward search
+     * by d(v) - p(v), where p(v) is half the difference of the distance heuristics towards
+     * dest and towards st. Both searches then see the same consistent reduced edge costs,
+     * so they can stop as soon as the two smallest keys add up to the best path found.
+     * Edges cost weights, and the heuristics are multiplied by scale to match.
+     */
+    private static List<Long> bidirectionalAStar(GraphDB g, int st, int dest, float[] weights,
+                                                 double scale) {
+        SearchContext fwd = SearchContext.get(g, SearchContext.FORWARD);
+        SearchContext bwd = SearchContext.get(g, SearchContext.BACKWARD);
+        fwd.update(st, 0.0, -1);
+        fwd.pq.insertOrDecrease(st, scale * potential(g, st, st, dest));
+        bwd.update(dest, 0.0, -1);
+        bwd.pq.insertOrDecrease(dest, -scale * potential(g, dest, st, dest));
+
+        double best = st == dest ? 0.0 : Double.POSITIVE_INFINITY;
+        int meet = st;
+        while (!fwd.pq.isEmpty() && !bwd.pq.isEmpty()
+                && fwd.pq.minKey() + bwd.pq.minKey() < best) {
+            boolean forward = fwd.pq.minKey() <= bwd.pq.minKey();
+            SearchContext ctx = forward ? fwd : bwd;
+            SearchContext other = forward ? bwd : fwd;
+
+            int v = ctx.pq.deleteMin();
+            ctx.settled++;
+            double dist = ctx.distTo[v];
+            for (int e = g.offsets[v]; e < g.offsets[v + 1]; e++) {
+                int neigh = g.targets[e];
+                double newDist = dist + weights[e];
+                if (newDist < ctx.dist(neigh)) {
+                    ctx.update(neigh, newDist, v);
+                    double p = scale * potential(g, neigh, st, dest);
+                    ctx.pq.insertOrDecrease(neigh, forward ? newDist + p : newDist - p);
+                    if (other.reached(neigh) && newDist + other.distTo[neigh] < best) {
+                        best = newDist + other.distTo[neigh];
+                        meet = neigh;
+                    }
+                }
+            }
+        }
+        if (best == Double.POSITIVE_INFINITY) {
+            return new ArrayList<>();
+        }
+
+        List<Long> path = buildPath(g, fwd.edgeTo, st, meet);
+        for (int at = meet; at != dest; ) {
+            at = bwd.edgeTo[at];
+            path.add(g.ids[at]);
+        }
+        return path;
+    }
+
+    /** The forward potential of v for a bidirectional search from st to dest. */
+    private static double potential(GraphDB g, int v, int st, int dest) {
+        return (heuristic(g, v, dest) - heuristic(g, st, v)) / 2;
+    }
+
+    private static double heuristic(GraphDB g,int s,int v) {
+        return GraphDB.distance(g.lons[s],g.lats[s],g.lons[v],g.lats[v]);
+    }
+
+    private static double heuristic(GraphDB g,int s,int v,Landmarks landmarks) {
+        double h = heuristic(g,s,v);
+        return landmarks == null ? h : Math.max(h,landmarks.lowerBound(s,v));
     }
 
-    private static List<Long> buildPath(Map<Long,Long> edgeTo,long start,long goal) {
-        LinkedList<Long> path = new LinkedList<>();
-        for (long at = goal;at != start;at = edgeTo.get(at)) {
-            path.addFirst(at);
+    private static List<Long> buildPath(GraphDB g,int[] edgeTo,int start,int goal) {
+        List<Long> path = new ArrayList<>();
+        for (int at = goal;at != start;at = edgeTo[at]) {
+            path.add(g.ids[at]);
         }
-        path.addFirst(start);
+        path.add(g.ids[start]);
+        Collections.reverse(path);
         return path;
     }
 
+    /**
+     * Returns the number of vertices settled by the most recent shortestPath call on the
+     * calling thread, counting both directions of bidirectional searches. A call with a
+     * negative st or dest searches nothing and leaves the count as it was.
+     * @return The number of settled vertices.
+     */
+    static int settledCount() {
+        return SearchContext.lastSearchSettled();
+    }
+
+    /**
+     * Returns the table of shortest-path distances from every source to every target, on
+     * the common fork-join pool. See distanceMatrix(GraphDB, double[][], double[][], Executor).
+     */
+    public static double[][] distanceMatrix(GraphDB g, double[][] sources, double[][] targets) {
+        return distanceMatrix(g, sources, targets, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Returns the table of shortest-path distances from every source to every target. Each
+     * point is snapped to its closest vertex once, and each distinct source vertex gets one
+     * Dijkstra search on the executor that stops once every target vertex is settled.
+     * @param g The graph to use.
+     * @param sources The {longitude, latitude} of each source.
+     * @param targets The {longitude, latitude} of each target.
+     * @param executor Runs the searches. The call waits for all of them.
+     * @return distances[i][j] is the length in miles of the shortest path from the vertex
+     * closest to source i to the vertex closest to target j, or infinity if there is none,
+     * as there is not when the graph has no vertices. Sources closest to the same vertex
+     * share the same row array.
+     */
+    public static double[][] distanceMatrix(GraphDB g, double[][] sources, double[][] targets,
+                                            Executor executor) {
+        double[][] distances = new double[sources.length][];
+        if (targets.length == 0) {
+            Arrays.fill(distances, new double[0]);
+            return distances;
+        }
+        /* targetSlot[v] is the column of the first target snapped to v, or -1. */
+        int[] targetSlot = new int[g.size()];
+        Arrays.fill(targetSlot, -1);
+        int[] targetVertices = new int[targets.length];
+        int distinctTargets = 0;
+        for (int j = 0; j < targets.length; j++) {
+            int v = g.index(g.closest(targets[j][0], targets[j][1]));
+            targetVertices[j] = v;
+            if (v >= 0 && targetSlot[v] < 0) {
+                targetSlot[v] = j;
+                distinctTargets++;
+            }
+        }
+        /* Sources snapped to the same vertex share one search and one row. */
+        int[] sourceVertices = new int[sources.length];
+        Map<Integer, CompletableFuture<double[]>> searches = new HashMap<>();
+        for (int i = 0; i < sources.length; i++) {
+            sourceVertices[i] = g.index(g.closest(sources[i][0], sources[i][1]));
+            if (sourceVertices[i] < 0) {
+                continue;
+            }
+            int remaining = distinctTargets;
+            searches.computeIfAbsent(sourceVertices[i], st -> CompletableFuture.supplyAsync(
+                    () -> oneToMany(g, st, targetSlot, targetVertices, remaining), executor));
+        }
+        double[] unreachable = null;
+        for (int i = 0; i < sources.length; i++) {
+            if (sourceVertices[i] >= 0) {
+                distances[i] = searches.get(sourceVertices[i]).join();
+                continue;
+            }
+            if (unreachable == null) {
+                unreachable = new double[targets.length];
+                Arrays.fill(unreachable, Double.POSITIVE_INFINITY);
+            }
+            distances[i] = unreachable;
+        }
+        return distances;
+    }
+
+    /**
+     * Dijkstra from st until the remaining distinct target vertices are all settled.
+     * @return The distance to each of targetVertices, or infinity for those not reached and
+     * for negative vertices.
+     */
+    private static double[] oneToMany(GraphDB g, int st, int[] targetSlot, int[] targetVertices,
+                                      int remaining) {
+        SearchContext ctx = SearchContext.get(g);
+        IndexedMinPQ pq = ctx.pq;
+        ctx.update(st, 0.0, -1);
+        pq.insertOrDecrease(st, 0.0);
+        double[] bySlot = new double[targetVertices.length];
+        Arrays.fill(bySlot, Double.POSITIVE_INFINITY);
+
+        while (!pq.isEmpty() && remaining > 0) {
+            int v = pq.deleteMin();
+            ctx.settled++;
+            double dist = ctx.distTo[v];
+            if (targetSlot[v] >= 0) {
+                bySlot[targetSlot[v]] = dist;
+                remaining--;
+            }
+            for (int e = g.offsets[v]; e < g.offsets[v + 1]; e++) {
+                int neigh = g.targets[e];
+                double newDist = dist + g.edgeLengths[e];
+                if (newDist < ctx.dist(neigh)) {
+                    ctx.update(neigh, newDist, v);
+                    pq.insertOrDecrease(neigh, newDist);
+                }
+            }
+        }
+        double[] row = new double[targetVertices.length];
+        for (int j = 0; j < row.length; j++) {
+            int v = targetVertices[j];
+            row[j] = v < 0 ? Double.POSITIVE_INFINITY : bySlot[targetSlot[v]];
+        }
+        return row;
+    }
+
     /**
      * Create the list of directions corresponding to a route on the graph.
      * @param g The graph to use.
@@ -103,15 +379,23 @@ public class Router {
         List<NavigationDirection> result = new ArrayList<>();
         if (route.size() < 2) return result;
 
-        String currWay = g.findWay(route.get(0), route.get(1));
+        /* Look every vertex up once; the route may be a LinkedList. */
+        int[] vs = new int[route.size()];
+        int k = 0;
+        for (long id : route) {
+            vs[k++] = g.index(id);
+        }
+
+        String currWay = wayName(g, vs[0], vs[1]);
         NavigationDirection currDir = new NavigationDirection();
         currDir.way = currWay;
         currDir.direction = NavigationDirection.START;
         currDir.distance = 0.0;
 
-        for (int i = 0; i < route.size() - 1; i++) {
-            String nextWay = g.findWay(route.get(i), route.get(i + 1));
-            double segmentDist = g.distance(route.get(i), route.get(i + 1));
+        for (int i = 0; i < vs.length - 1; i++) {
+            String nextWay = wayName(g, vs[i], vs[i + 1]);
+            double segmentDist = GraphDB.distance(g.lons[vs[i]], g.lats[vs[i]],
+                    g.lons[vs[i + 1]], g.lats[vs[i + 1]]);
 
             if (nextWay.equals(currWay)) {
                 currDir.distance += segmentDist;
@@ -119,7 +403,7 @@ public class Router {
                 result.add(currDir);
                 currDir = new NavigationDirection();
                 currDir.way = nextWay;
-                currDir.direction = findDirection(g, route.get(i - 1), route.get(i), route.get(i + 1));
+                currDir.direction = findDirection(g, vs[i - 1], vs[i], vs[i + 1]);
                 currDir.distance = segmentDist;
                 currWay = nextWay;
             }
@@ -129,10 +413,17 @@ public class Router {
         return result;
     }
 
+    /** Returns the name of the way from vertex v to vertex w, by index; see GraphDB.findWay. */
+    private static String wayName(GraphDB g, int v, int w) {
+        int e = g.edge(v, w);
+        return e >= 0 ? g.wayName(e) : g.findWay(g.ids[v], g.ids[w]);
+    }
 
-    private static int findDirection(GraphDB g, long prev, long curr, long next) {
-        double bearingPrev = g.bearing(prev, curr);
-        double bearingNext = g.bearing(curr, next);
+    private static int findDirection(GraphDB g, int prev, int curr, int next) {
+        double bearingPrev = GraphDB.bearing(g.lons[prev], g.lats[prev],
+                g.lons[curr], g.lats[curr]);
+        double bearingNext = GraphDB.bearing(g.lons[curr], g.lats[curr],
+                g.lons[next], g.lats[next]);
         double relBearing = bearingNext - bearingPrev;
 
         // 标准化角度到 [-180, 180)
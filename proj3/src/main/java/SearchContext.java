@@ -0,0 +1,112 @@
+import java.util.Arrays;
+
+/**
+ * Reusable per-thread state for a single-source search over a GraphDB: tentative
+ * distances, the shortest-path tree and the priority queue, all indexed by dense vertex
+ * index.
+ *
+ * Rather than clearing distTo and edgeTo before every search, each entry is stamped
+ * with the generation that wrote it; entries from older generations read as unreached.
+ * Starting a new search is therefore constant time, and a search allocates nothing.
+ */
+class SearchContext {
+    /** Slots for the two directions of a bidirectional search; FORWARD is the default. */
+    static final int FORWARD = 0;
+    static final int BACKWARD = 1;
+    private static final ThreadLocal<SearchContext[]> CONTEXTS =
+            ThreadLocal.withInitial(() -> new SearchContext[2]);
+
+    final double[] distTo;
+    final int[] edgeTo;
+    final IndexedMinPQ pq;
+    /** Number of vertices settled by the current search in this context. */
+    int settled;
+    /** stamp[v] is the generation in which distTo[v] and edgeTo[v] were last written. */
+    private final int[] stamp;
+    private int generation;
+
+    SearchContext(int capacity) {
+        distTo = new double[capacity];
+        edgeTo = new int[capacity];
+        stamp = new int[capacity];
+        pq = new IndexedMinPQ(capacity);
+        generation = 1;
+    }
+
+    /**
+     * Returns this thread's context, reset and large enough for a search over g.
+     * @param g The graph about to be searched.
+     * @return A context with every vertex unreached and an empty queue.
+     */
+    static SearchContext get(GraphDB g) {
+        return get(g, FORWARD);
+    }
+
+    /**
+     * Returns this thread's context in the given slot, reset and large enough for a
+     * search over g. Bidirectional searches use one slot per direction. Every search
+     * takes its FORWARD context first, which also clears the settled counts of the others.
+     * @param g The graph about to be searched.
+     * @param slot FORWARD or BACKWARD.
+     * @return A context with every vertex unreached and an empty queue.
+     */
+    static SearchContext get(GraphDB g, int slot) {
+        SearchContext[] contexts = CONTEXTS.get();
+        SearchContext ctx = contexts[slot];
+        if (ctx == null || ctx.distTo.length < g.size()) {
+            ctx = new SearchContext(g.size());
+            contexts[slot] = ctx;
+        }
+        if (slot == FORWARD) {
+            for (SearchContext other : contexts) {
+                if (other != null) {
+                    other.settled = 0;
+                }
+            }
+        }
+        ctx.reset();
+        return ctx;
+    }
+
+    /**
+     * Returns the number of vertices settled by the calling thread's most recent search,
+     * summed over both directions.
+     */
+    static int lastSearchSettled() {
+        int total = 0;
+        for (SearchContext ctx : CONTEXTS.get()) {
+            if (ctx != null) {
+                total += ctx.settled;
+            }
+        }
+        return total;
+    }
+
+    /** Marks every vertex as unreached and empties the queue. */
+    void reset() {
+        generation++;
+        if (generation == 0) {
+            Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+        pq.clear();
+        settled = 0;
+    }
+
+    /** Returns true if v has been given a distance in the current search. */
+    boolean reached(int v) {
+        return stamp[v] == generation;
+    }
+
+    /** Returns the tentative distance to v, or infinity if v is unreached. */
+    double dist(int v) {
+        return stamp[v] == generation ? distTo[v] : Double.POSITIVE_INFINITY;
+    }
+
+    /** Records that v can be reached with the given distance through vertex from. */
+    void update(int v, double dist, int from) {
+        stamp[v] = generation;
+        distTo[v] = dist;
+        edgeTo[v] = from;
+    }
+}
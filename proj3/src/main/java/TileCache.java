@@ -0,0 +1,182 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+/**
+ * A bounded cache of decoded map tiles, keyed by tile file name such as d3_x1_y2.png.
+ *
+ * Tiles are evicted in least recently used order once the decoded images take up more than
+ * the configured number of bytes. All methods are thread-safe. Tiles are decoded outside
+ * the lock, so a slow read from disk never blocks requests for tiles that are cached.
+ */
+public class TileCache {
+    private final String root;
+    private final long maxBytes;
+    /** Access-ordered, so iteration starts at the least recently used tile. */
+    private final LinkedHashMap<String, BufferedImage> tiles = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    /** How long each read of a missing tile from disk took. */
+    private final Metrics.Histogram readTimes;
+
+    /**
+     * Creates an empty cache.
+     * @param root The folder the tile images are in, ending with a separator.
+     * @param maxBytes The most bytes of decoded images to keep.
+     */
+    public TileCache(String root, long maxBytes) {
+        this(root, maxBytes, Metrics.Histogram.latency());
+    }
+
+    /**
+     * Creates an empty cache that records its reads from disk in a histogram, which may be
+     * shared with other caches.
+     * @param root The folder the tile images are in, ending with a separator.
+     * @param maxBytes The most bytes of decoded images to keep.
+     * @param readTimes The histogram of read times, in nanoseconds.
+     */
+    public TileCache(String root, long maxBytes, Metrics.Histogram readTimes) {
+        this.root = root;
+        this.maxBytes = maxBytes;
+        this.readTimes = readTimes;
+    }
+
+    /**
+     * Returns the decoded tile with the given file name, reading it from disk if it is not
+     * cached.
+     * @param name The file name of the tile, relative to the root folder.
+     * @return The tile image, or null if it cannot be read.
+     */
+    public BufferedImage get(String name) {
+        synchronized (this) {
+            BufferedImage img = tiles.get(name);
+            if (img != null) {
+                hits.incrementAndGet();
+                return img;
+            }
+        }
+        misses.incrementAndGet();
+        long start = System.nanoTime();
+        BufferedImage img = read(root + name);
+        readTimes.recordSince(start);
+        if (img != null) {
+            put(name, img);
+        }
+        return img;
+    }
+
+    private synchronized void put(String name, BufferedImage img) {
+        long size = sizeOf(img);
+        if (size > maxBytes) {
+            return;
+        }
+        BufferedImage old = tiles.put(name, img);
+        if (old != null) {
+            bytes -= sizeOf(old);
+        }
+        bytes += size;
+        Iterator<Map.Entry<String, BufferedImage>> it = tiles.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, BufferedImage> eldest = it.next();
+            bytes -= sizeOf(eldest.getValue());
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static BufferedImage read(String imgPath) {
+        try {
+            return ImageIO.read(new File(imgPath));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /** Returns the number of bytes used by the pixels of img. */
+    private static long sizeOf(BufferedImage img) {
+        DataBuffer buffer = img.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks()
+                * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    /**
+     * Loads every tile from depth 0 through maxDepth that exists on disk, stopping early if
+     * the cache fills up. Meant to be called at startup, so the first requests at the
+     * shallow zoom levels are already cached.
+     * @param maxDepth The deepest level to load, or a negative number to load nothing.
+     */
+    public void warmUp(int maxDepth) {
+        for (int depth = 0; depth <= maxDepth; depth++) {
+            for (int x = 0; x < 1 << depth; x++) {
+                for (int y = 0; y < 1 << depth; y++) {
+                    String name = "d" + depth + "_x" + x + "_y" + y + ".png";
+                    if (!new File(root + name).isFile()) {
+                        continue;
+                    }
+                    BufferedImage img = read(root + name);
+                    if (img == null) {
+                        continue;
+                    }
+                    synchronized (this) {
+                        if (bytes + sizeOf(img) > maxBytes) {
+                            return;
+                        }
+                    }
+                    put(name, img);
+                }
+            }
+        }
+    }
+
+    /** Removes every tile from the cache. The counters are not reset. */
+    public synchronized void clear() {
+        tiles.clear();
+        bytes = 0;
+    }
+
+    /** Returns the number of tiles in the cache. */
+    public synchronized int size() {
+        return tiles.size();
+    }
+
+    /** Returns the number of bytes used by the cached tiles. */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /** Returns the number of calls to get that found their tile in the cache. */
+    public long hits() {
+        return hits.get();
+    }
+
+    /** Returns the number of calls to get that had to read their tile from disk. */
+    public long misses() {
+        return misses.get();
+    }
+
+    /** Returns the number of tiles evicted to make room for others. */
+    public long evictions() {
+        return evictions.get();
+    }
+
+    /** Returns the histogram of how long get took to read each missing tile from disk. */
+    public Metrics.Histogram readTimes() {
+        return readTimes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TileCache[%d tiles, %d bytes, %d hits, %d misses, %d evictions]",
+                size(), bytes(), hits(), misses(), evictions());
+    }
+}
@@ -0,0 +1,125 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The travel-time cost model: how many seconds each edge of a GraphDB takes to drive, at
+ * the speed limit of its way. The limit comes from the way's maxspeed tag when it can be
+ * read, and otherwise from a typical speed for its highway type.
+ *
+ * All the tag parsing happens once, when the graph is loaded; routing only reads the
+ * resulting array.
+ */
+public class TravelTimes {
+    /** Speed in miles per hour for ways with neither a readable maxspeed nor a known type. */
+    static final double DEFAULT_SPEED_MPH = 25;
+    private static final double KMH_PER_MPH = 1.609344;
+    private static final double SECONDS_PER_HOUR = 3600;
+    /** A number with an optional unit, e.g. "25 mph", "50", "40 km/h" or "30;40". */
+    private static final Pattern MAXSPEED = Pattern.compile("^\\s*(\\d+(?:\\.\\d+)?)\\s*(\\S*)");
+    /** Typical speeds in miles per hour by highway type, for ways without a maxspeed. */
+    private static final Map<String, Double> HIGHWAY_SPEEDS_MPH = new HashMap<>();
+    static {
+        HIGHWAY_SPEEDS_MPH.put("motorway", 65.0);
+        HIGHWAY_SPEEDS_MPH.put("trunk", 55.0);
+        HIGHWAY_SPEEDS_MPH.put("primary", 40.0);
+        HIGHWAY_SPEEDS_MPH.put("secondary", 35.0);
+        HIGHWAY_SPEEDS_MPH.put("tertiary", 30.0);
+        HIGHWAY_SPEEDS_MPH.put("unclassified", 25.0);
+        HIGHWAY_SPEEDS_MPH.put("residential", 25.0);
+        HIGHWAY_SPEEDS_MPH.put("living_street", 10.0);
+        HIGHWAY_SPEEDS_MPH.put("motorway_link", 45.0);
+        HIGHWAY_SPEEDS_MPH.put("trunk_link", 40.0);
+        HIGHWAY_SPEEDS_MPH.put("primary_link", 30.0);
+        HIGHWAY_SPEEDS_MPH.put("secondary_link", 30.0);
+        HIGHWAY_SPEEDS_MPH.put("tertiary_link", 25.0);
+    }
+
+    /**
+     * Fills g.edgeTimes with the seconds each edge takes, and g.maxSpeed with the fastest
+     * speed of any edge, or DEFAULT_SPEED_MPH if that is faster. An edge on several ways
+     * takes the fastest of them; edges on no way with a speed use DEFAULT_SPEED_MPH.
+     * @param g The graph, with its edges and ways built.
+     */
+    static void assign(GraphDB g) {
+        float[] speeds = new float[g.targets.length];
+        for (GraphDB.Way way : g.ways.values()) {
+            if (!way.valid) {
+                continue;
+            }
+            float speed = (float) speedOf(way);
+            int prev = -1;
+            for (long id : way.linkedNode) {
+                int v = g.index(id);
+                if (v < 0) {
+                    /* Edges skip the references that are not vertices, and so do we. */
+                    continue;
+                }
+                if (prev >= 0) {
+                    setFaster(g, speeds, prev, v, speed);
+                    setFaster(g, speeds, v, prev, speed);
+                }
+                prev = v;
+            }
+        }
+
+        g.edgeTimes = new float[speeds.length];
+        double maxSpeed = DEFAULT_SPEED_MPH;
+        for (int e = 0; e < speeds.length; e++) {
+            double speed = speeds[e] > 0 ? speeds[e] : DEFAULT_SPEED_MPH;
+            maxSpeed = Math.max(maxSpeed, speed);
+            /* Rounded up, so that edges are never faster than the heuristic assumes. */
+            double time = g.edgeLengths[e] / speed * SECONDS_PER_HOUR;
+            float rounded = (float) time;
+            g.edgeTimes[e] = rounded < time ? Math.nextUp(rounded) : rounded;
+        }
+        g.maxSpeed = maxSpeed;
+    }
+
+    /** Raises the speed of the edge from v to w to at least speed. */
+    private static void setFaster(GraphDB g, float[] speeds, int v, int w, float speed) {
+        int e = g.edge(v, w);
+        if (e >= 0 && speed > speeds[e]) {
+            speeds[e] = speed;
+        }
+    }
+
+    /**
+     * Returns the speed limit of a way.
+     * @param way The way.
+     * @return The speed in miles per hour.
+     */
+    static double speedOf(GraphDB.Way way) {
+        double speed = parseMaxspeed(way.extraInfo.get("maxspeed"));
+        if (speed > 0) {
+            return speed;
+        }
+        Double typical = HIGHWAY_SPEEDS_MPH.get(way.extraInfo.get("highway"));
+        return typical == null ? DEFAULT_SPEED_MPH : typical;
+    }
+
+    /**
+     * Reads an OSM maxspeed value. Plain numbers are in km/h; "mph" and "knots" units are
+     * understood, and of several values only the first is used.
+     * @param maxspeed The tag value, or null.
+     * @return The speed in miles per hour, or 0 if there is none or it cannot be read.
+     */
+    static double parseMaxspeed(String maxspeed) {
+        if (maxspeed == null) {
+            return 0;
+        }
+        Matcher m = MAXSPEED.matcher(maxspeed);
+        if (!m.find()) {
+            return 0;
+        }
+        double value = Double.parseDouble(m.group(1));
+        String unit = m.group(2).toLowerCase();
+        if (unit.startsWith("mph")) {
+            return value;
+        } else if (unit.startsWith("knot")) {
+            return value * 1.852 / KMH_PER_MPH;
+        }
+        return value / KMH_PER_MPH;
+    }
+}
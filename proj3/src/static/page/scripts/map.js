@@ -116,7 +116,8 @@ $(function() {
                 console.log(data);
                 if (data.query_success) {
                     $loadingStatus.hide();
-                    map.src = 'data:image/png;base64,' + data.b64_encoded_image_data;
+                    map.src = 'data:image/' + (data.image_format || 'png') + ';base64,' +
+                              data.b64_encoded_image_data;
                     console.log('Updating map with image length: ' +
                                 data.b64_encoded_image_data.length);
                     ullon_bound = data.raster_ul_lon;
@@ -173,6 +174,12 @@ $(function() {
             data: route_params,
             success: function(data) {
                 data = JSON.parse(data);
+                // The raster server draws the route named by the token sent with params
+                if (data.route_token) {
+                    params.route_token = data.route_token;
+                } else {
+                    delete params.route_token;
+                }
                 updateImg();
                 if (data.directions_success) {
                     $directionsText.html(data.directions);
@@ -407,7 +414,9 @@ $(function() {
         $.get({
             async: true,
             url: clear_route,
+            data: {route_token: params.route_token},
             success: function() {
+                delete params.route_token;
                 dest.style.visibility = 'hidden';
                 $directionsText.html('No routing directions to display.');
                 update();
@@ -0,0 +1,89 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A temporary OSM file holding hand-written XML, for tests that build a GraphDB of their
+ * own. GraphDB saves a snapshot next to the file it parses, so close() deletes both; use
+ * the fixture in a try-with-resources block, or close it in an @After method.
+ */
+public class OsmFixture implements AutoCloseable {
+    /** An OSM file with no nodes or ways, whose graph has no vertices. */
+    public static final String EMPTY = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<osm/>\n";
+
+    private final File file;
+
+    /**
+     * Writes the XML to a new temporary file.
+     * @param prefix The start of the file name.
+     * @param xml The contents of the file.
+     * @param gzipped Whether to gzip the file, which then ends in ".osm.xml.gz".
+     * @throws IOException If the file cannot be written.
+     */
+    public OsmFixture(String prefix, String xml, boolean gzipped) throws IOException {
+        file = File.createTempFile(prefix, gzipped ? ".osm.xml.gz" : ".osm.xml");
+        write(xml, gzipped);
+    }
+
+    /** Writes the XML to a new temporary file, uncompressed. */
+    public OsmFixture(String prefix, String xml) throws IOException {
+        this(prefix, xml, false);
+    }
+
+    /**
+     * Returns the graph of an OSM file with no nodes or ways, leaving no files behind.
+     * @return The graph.
+     * @throws IOException If the file cannot be written.
+     */
+    public static GraphDB emptyGraph() throws IOException {
+        try (OsmFixture osm = new OsmFixture("empty", EMPTY)) {
+            return osm.graph();
+        }
+    }
+
+    /** Returns the path of the OSM file. */
+    public String path() {
+        return file.getPath();
+    }
+
+    /** Returns the OSM file. */
+    public File file() {
+        return file;
+    }
+
+    /** Returns the snapshot GraphDB saves of the OSM file, which may not exist. */
+    public File snapshot() {
+        return new File(GraphSnapshot.pathFor(file.getPath()));
+    }
+
+    /** Builds a GraphDB from the OSM file. */
+    public GraphDB graph() {
+        return new GraphDB(file.getPath());
+    }
+
+    /**
+     * Replaces the contents of the OSM file, compressing them if the file was gzipped.
+     * @param xml The new contents.
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(String xml) throws IOException {
+        write(xml, file.getName().endsWith(".gz"));
+    }
+
+    private void write(String xml, boolean gzipped) throws IOException {
+        try (OutputStream out = gzipped ? new GZIPOutputStream(new FileOutputStream(file))
+                : new FileOutputStream(file)) {
+            out.write(xml.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** Deletes the OSM file and its snapshot. */
+    @Override
+    public void close() {
+        file.delete();
+        snapshot().delete();
+    }
+}
@@ -0,0 +1,111 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Builds graphs from a small hand-written OSM file, plain and gzipped, and checks which
+ * nodes and ways end up in the graph and that snapshots reproduce it.
+ */
+public class TestGraphBuildingHandler {
+    private static final String OSM = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<osm version=\"0.6\">\n"
+            + "  <node id=\"1\" lat=\"37.870\" lon=\"-122.260\">"
+            + "<tag k=\"name\" v=\"Top\"/></node>\n"
+            + "  <node id=\"2\" lat=\"37.869\" lon=\"-122.260\"/>\n"
+            + "  <node id=\"3\" lat=\"37.868\" lon=\"-122.260\"/>\n"
+            + "  <node id=\"4\" lat=\"37.869\" lon=\"-122.259\"/>\n"
+            + "  <node id=\"5\" lat=\"37.869\" lon=\"-122.258\">"
+            + "<tag k=\"name\" v=\"Shed\"/></node>\n"
+            + "  <node id=\"6\" lat=\"37.868\" lon=\"-122.258\"/>\n"
+            + "  <way id=\"10\">\n"
+            + "    <nd ref=\"1\"/><nd ref=\"2\"/><nd ref=\"3\"/><nd ref=\"99\"/>\n"
+            + "    <tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"Oxford Street\"/>\n"
+            + "  </way>\n"
+            + "  <way id=\"11\">\n"
+            + "    <nd ref=\"2\"/><nd ref=\"4\"/>\n"
+            + "    <tag k=\"highway\" v=\"tertiary\"/><tag k=\"maxspeed\" v=\"25 mph\"/>\n"
+            + "  </way>\n"
+            + "  <way id=\"13\">\n"
+            + "    <nd ref=\"5\"/><nd ref=\"6\"/>\n"
+            + "    <tag k=\"building\" v=\"yes\"/>\n"
+            + "  </way>\n"
+            + "  <way id=\"12\">\n"
+            + "    <nd ref=\"4\"/><nd ref=\"5\"/>\n"
+            + "    <tag k=\"highway\" v=\"footway\"/><tag k=\"name\" v=\"Path\"/>\n"
+            + "  </way>\n"
+            + "  <relation id=\"20\">\n"
+            + "    <member type=\"way\" ref=\"13\" role=\"\"/><tag k=\"name\" v=\"Relation\"/>\n"
+            + "  </relation>\n"
+            + "</osm>\n";
+
+    private OsmFixture plain;
+    private OsmFixture gzipped;
+
+    @Before
+    public void setUp() throws Exception {
+        plain = new OsmFixture("tiny", OSM);
+        gzipped = new OsmFixture("tiny", OSM, true);
+    }
+
+    @After
+    public void tearDown() {
+        plain.close();
+        gzipped.close();
+    }
+
+    private static List<Long> list(Iterable<Long> ids) {
+        List<Long> result = new ArrayList<>();
+        for (long id : ids) {
+            result.add(id);
+        }
+        return result;
+    }
+
+    private void checkGraph(GraphDB g) {
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L), list(g.vertices()));
+        assertEquals(Arrays.asList(2L), list(g.adjacent(1)));
+        assertEquals(Arrays.asList(1L, 3L, 4L), list(g.adjacent(2)));
+        assertEquals(Arrays.asList(2L), list(g.adjacent(4)));
+        assertEquals("Top", g.name(1));
+        assertNull(g.name(2));
+        assertEquals(-122.259, g.lon(4), 1e-9);
+        assertEquals(37.869, g.lat(4), 1e-9);
+        assertEquals("Oxford Street", g.findWay(1, 2));
+        assertEquals("", g.findWay(2, 4));
+        assertEquals("Oxford Street", g.wayName(g.edge(g.index(3), g.index(2))));
+        assertEquals(-1, g.edge(g.index(1), g.index(4)));
+        /* Vertices that are not neighbours still find the way they share. */
+        assertEquals("Oxford Street", g.findWay(1, 3));
+        assertEquals("25 mph", g.ways.get(11L).extraInfo.get("maxspeed"));
+        /* The footway is kept because it passes through vertex 4, but the building is not,
+         * and the relation's name does not leak onto the last way. */
+        assertTrue(g.ways.containsKey(12L));
+        assertEquals(3, g.ways.size());
+        assertEquals("Path", g.ways.get(12L).extraInfo.get("name"));
+    }
+
+    @Test
+    public void testPlain() {
+        checkGraph(plain.graph());
+    }
+
+    @Test
+    public void testGzipped() {
+        checkGraph(gzipped.graph());
+    }
+
+    @Test
+    public void testSnapshot() {
+        plain.graph();
+        assertTrue(plain.snapshot().isFile());
+        checkGraph(plain.graph());
+    }
+}
@@ -0,0 +1,121 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that GraphDB loads the snapshot of an OSM file instead of parsing it again, and
+ * rebuilds the snapshot when the file, the snapshot or the snapshot format changes.
+ *
+ * Each test rewrites the OSM file with a different name for vertex 1 while keeping its
+ * length and modification time, so that the snapshot still looks current. The name the
+ * next graph reports then shows whether it came from the snapshot or from the XML.
+ */
+public class TestGraphSnapshot {
+    private OsmFixture osm;
+    /** The modification time of the OSM file when its snapshot was saved. */
+    private long modified;
+
+    private static String xml(String name) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<osm version=\"0.6\">\n"
+                + "  <node id=\"1\" lat=\"37.870\" lon=\"-122.260\">\n"
+                + "    <tag k=\"name\" v=\"" + name + "\"/>\n"
+                + "  </node>\n"
+                + "  <node id=\"2\" lat=\"37.871\" lon=\"-122.260\"/>\n"
+                + "  <way id=\"10\">\n"
+                + "    <nd ref=\"1\"/><nd ref=\"2\"/>\n"
+                + "    <tag k=\"highway\" v=\"residential\"/>\n"
+                + "  </way>\n"
+                + "</osm>\n";
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        osm = new OsmFixture("snapshot", xml("Top"));
+        assertEquals("Top", osm.graph().name(1));
+        assertTrue(osm.snapshot().isFile());
+        modified = osm.file().lastModified();
+    }
+
+    @After
+    public void tearDown() {
+        osm.close();
+    }
+
+    /** Rewrites the OSM file with another name for vertex 1, keeping its modification time. */
+    private void rewrite(String name) throws Exception {
+        osm.write(xml(name));
+        assertTrue(osm.file().setLastModified(modified));
+    }
+
+    /** Flips the bits of mask in one byte of the snapshot. */
+    private void flipSnapshotBits(long position, int mask) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(osm.snapshot(), "rw")) {
+            raf.seek(position);
+            int value = raf.read();
+            raf.seek(position);
+            raf.write(value ^ mask);
+        }
+    }
+
+    @Test
+    public void testLoadedFromSnapshot() throws Exception {
+        rewrite("Tip");
+        GraphDB g = osm.graph();
+        assertTrue(g.loaded());
+        assertEquals("Top", g.name(1));
+        assertEquals(2, g.size());
+        assertEquals(Long.valueOf(2), g.adjacent(1).iterator().next());
+    }
+
+    @Test
+    public void testLengthChanged() throws Exception {
+        rewrite("Tops");
+        assertEquals("Tops", osm.graph().name(1));
+        /* The rebuilt snapshot is used from then on. */
+        rewrite("Tipi");
+        assertEquals("Tops", osm.graph().name(1));
+    }
+
+    @Test
+    public void testModificationTimeChanged() throws Exception {
+        rewrite("Tip");
+        modified += 10000;
+        assertTrue(osm.file().setLastModified(modified));
+        assertEquals("Tip", osm.graph().name(1));
+        rewrite("Tap");
+        assertEquals("Tip", osm.graph().name(1));
+    }
+
+    @Test
+    public void testCorruptPayload() throws Exception {
+        rewrite("Tip");
+        flipSnapshotBits(osm.snapshot().length() - 1, 0xFF);
+        assertEquals("Tip", osm.graph().name(1));
+        rewrite("Tap");
+        assertEquals("Tip", osm.graph().name(1));
+    }
+
+    @Test
+    public void testOtherVersion() throws Exception {
+        rewrite("Tip");
+        /* The version is the big-endian int after the 4-byte magic number. */
+        flipSnapshotBits(7, 1);
+        assertEquals("Tip", osm.graph().name(1));
+        rewrite("Tap");
+        assertEquals("Tip", osm.graph().name(1));
+    }
+
+    @Test
+    public void testMissingSnapshot() throws Exception {
+        rewrite("Tip");
+        assertTrue(osm.snapshot().delete());
+        assertEquals("Tip", osm.graph().name(1));
+        assertTrue(osm.snapshot().isFile());
+    }
+}
@@ -0,0 +1,66 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Randomized check of the indexed heap used by Router against a brute force minimum.
+ */
+public class TestIndexedMinPQ {
+    private static final int CAPACITY = 300;
+    private static final int NUM_OPERATIONS = 20000;
+
+    @Test
+    public void testRandomOperations() {
+        Random random = new Random(61);
+        IndexedMinPQ pq = new IndexedMinPQ(CAPACITY);
+        double[] keys = new double[CAPACITY];
+        boolean[] present = new boolean[CAPACITY];
+
+        for (int op = 0; op < NUM_OPERATIONS; op++) {
+            if (random.nextInt(3) > 0) {
+                int v = random.nextInt(CAPACITY);
+                double key = random.nextDouble();
+                pq.insertOrDecrease(v, key);
+                if (!present[v] || key < keys[v]) {
+                    keys[v] = key;
+                }
+                present[v] = true;
+            } else if (!pq.isEmpty()) {
+                double expected = Double.POSITIVE_INFINITY;
+                for (int v = 0; v < CAPACITY; v++) {
+                    if (present[v]) {
+                        expected = Math.min(expected, keys[v]);
+                    }
+                }
+                assertEquals(expected, pq.minKey(), 0.0);
+                int v = pq.deleteMin();
+                assertEquals(expected, keys[v], 0.0);
+                present[v] = false;
+                assertFalse(pq.contains(v));
+            }
+            if (random.nextInt(1000) == 0) {
+                pq.clear();
+                present = new boolean[CAPACITY];
+            }
+        }
+    }
+
+    @Test
+    public void testClear() {
+        IndexedMinPQ pq = new IndexedMinPQ(4);
+        pq.insertOrDecrease(2, 1.0);
+        pq.insertOrDecrease(0, 2.0);
+        assertTrue(pq.contains(2));
+        pq.clear();
+        assertTrue(pq.isEmpty());
+        assertFalse(pq.contains(2));
+        assertFalse(pq.contains(0));
+        pq.insertOrDecrease(0, 5.0);
+        assertEquals(0, pq.deleteMin());
+        assertTrue(pq.isEmpty());
+    }
+}
@@ -0,0 +1,121 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks IsochroneCache on a small hand-written graph: a street running east through
+ * vertices 1 to 4, about 0.055 miles apart, and a side street running 0.138 miles north
+ * from vertex 2 to vertex 5. Also checks the convex hull on its own.
+ */
+public class TestIsochrone {
+    private static final String OSM = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<osm version=\"0.6\">\n"
+            + "  <node id=\"1\" lat=\"37.870\" lon=\"-122.260\"/>\n"
+            + "  <node id=\"2\" lat=\"37.870\" lon=\"-122.259\"/>\n"
+            + "  <node id=\"3\" lat=\"37.870\" lon=\"-122.258\"/>\n"
+            + "  <node id=\"4\" lat=\"37.870\" lon=\"-122.257\"/>\n"
+            + "  <node id=\"5\" lat=\"37.872\" lon=\"-122.259\"/>\n"
+            + "  <way id=\"10\">\n"
+            + "    <nd ref=\"1\"/><nd ref=\"2\"/><nd ref=\"3\"/><nd ref=\"4\"/>\n"
+            + "    <tag k=\"highway\" v=\"residential\"/>\n"
+            + "  </way>\n"
+            + "  <way id=\"11\">\n"
+            + "    <nd ref=\"2\"/><nd ref=\"5\"/>\n"
+            + "    <tag k=\"highway\" v=\"residential\"/>\n"
+            + "  </way>\n"
+            + "</osm>\n";
+
+    private OsmFixture osm;
+    private IsochroneCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        osm = new OsmFixture("isochrone", OSM);
+        cache = new IsochroneCache(osm.graph(), 2);
+    }
+
+    @After
+    public void tearDown() {
+        osm.close();
+    }
+
+    @Test
+    public void testReachableVertices() {
+        assertArrayEquals(new long[]{1}, cache.get(-122.260, 37.870, 0).vertices());
+        assertArrayEquals(new long[]{1, 2}, cache.get(-122.260, 37.870, 0.08).vertices());
+        assertArrayEquals(new long[]{1, 2, 3}, cache.get(-122.260, 37.870, 0.13).vertices());
+        Isochrone all = cache.get(-122.260, 37.870, 0.2);
+        assertArrayEquals(new long[]{1, 2, 3, 4, 5}, all.vertices());
+        double[] distances = all.distances();
+        assertEquals(0.0, distances[0], 0.0);
+        for (int i = 1; i < distances.length; i++) {
+            assertTrue(distances[i - 1] <= distances[i]);
+        }
+        assertArrayEquals(new long[]{2, 1, 3, 4, 5},
+                cache.get(-122.259, 37.870, 1).vertices());
+    }
+
+    @Test
+    public void testNaNBudget() {
+        try {
+            cache.get(-122.260, 37.870, Double.NaN);
+            fail("Searched with a NaN budget");
+        } catch (IllegalArgumentException e) {
+            assertEquals(0, cache.size());
+        }
+        assertArrayEquals(new long[]{1, 2}, cache.get(-122.260, 37.870, 0.08).vertices());
+    }
+
+    @Test
+    public void testBoundary() {
+        assertEquals(1, cache.get(-122.260, 37.870, 0).boundary().length);
+        /* The street alone is a line, so its hull has only the two ends. */
+        assertEquals(2, cache.get(-122.260, 37.870, 0.13).boundary().length);
+        double[][] boundary = cache.get(-122.260, 37.870, 0.2).boundary();
+        assertEquals(3, boundary.length);
+        assertArrayEquals(new double[]{-122.260, 37.870}, boundary[0], 1e-9);
+        assertArrayEquals(new double[]{-122.257, 37.870}, boundary[1], 1e-9);
+        assertArrayEquals(new double[]{-122.259, 37.872}, boundary[2], 1e-9);
+    }
+
+    @Test
+    public void testSearchesAreReused() {
+        cache.get(-122.260, 37.870, 0.13);
+        assertEquals(1, cache.misses());
+        cache.get(-122.260, 37.870, 0.08);
+        cache.get(-122.2601, 37.8701, 0.13);
+        assertEquals(2, cache.hits());
+        /* A larger budget searches again, out to twice the old radius. */
+        cache.get(-122.260, 37.870, 0.2);
+        assertEquals(2, cache.misses());
+        cache.get(-122.260, 37.870, 0.26);
+        assertEquals(2, cache.misses());
+        assertEquals(1, cache.size());
+        cache.get(-122.257, 37.870, 0.1);
+        cache.get(-122.259, 37.872, 0.1);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testEmptyGraph() throws Exception {
+        Isochrone none = new IsochroneCache(OsmFixture.emptyGraph(), 2).get(-122.260, 37.870, 1);
+        assertEquals(0, none.vertices().length);
+        assertEquals(0, none.boundary().length);
+    }
+
+    @Test
+    public void testConvexHull() {
+        double[][] points = {{0, 0}, {2, 0}, {1, 1}, {2, 2}, {0, 2}, {1, 0}, {1, 2}};
+        double[][] hull = Isochrone.convexHull(points);
+        assertEquals(4, hull.length);
+        assertArrayEquals(new double[]{0, 0}, hull[0], 0);
+        assertArrayEquals(new double[]{2, 0}, hull[1], 0);
+        assertArrayEquals(new double[]{2, 2}, hull[2], 0);
+        assertArrayEquals(new double[]{0, 2}, hull[3], 0);
+    }
+}
@@ -0,0 +1,119 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the spatial index used by GraphDB against brute force over random points
+ * in the Berkeley bounding box, and GraphDB.closest against its linear scan.
+ */
+public class TestKdTree {
+    private static final int NUM_POINTS = 2000;
+    private static final int NUM_QUERIES = 200;
+    private static final int NUM_CLOSEST_QUERIES = 20000;
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private double[] lons;
+    private double[] lats;
+    private KdTree tree;
+    private Random random;
+
+    @Before
+    public void setUp() throws Exception {
+        random = new Random(2018);
+        lons = new double[NUM_POINTS];
+        lats = new double[NUM_POINTS];
+        for (int i = 0; i < NUM_POINTS; i++) {
+            lons[i] = randomLon();
+            lats[i] = randomLat();
+        }
+        tree = new KdTree(lons, lats);
+    }
+
+    private double randomLon() {
+        return MapServer.ROOT_ULLON
+                + random.nextDouble() * (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON);
+    }
+
+    private double randomLat() {
+        return MapServer.ROOT_LRLAT
+                + random.nextDouble() * (MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT);
+    }
+
+    private List<Integer> byDistance(double lon, double lat) {
+        List<Integer> points = new ArrayList<>();
+        for (int i = 0; i < NUM_POINTS; i++) {
+            points.add(i);
+        }
+        points.sort((a, b) -> Double.compare(GraphDB.distance(lon, lat, lons[a], lats[a]),
+                GraphDB.distance(lon, lat, lons[b], lats[b])));
+        return points;
+    }
+
+    @Test
+    public void testNearest() {
+        for (int q = 0; q < NUM_QUERIES; q++) {
+            double lon = randomLon();
+            double lat = randomLat();
+            assertEquals((int) byDistance(lon, lat).get(0), tree.nearest(lon, lat));
+        }
+    }
+
+    @Test
+    public void testKNearest() {
+        for (int q = 0; q < NUM_QUERIES; q++) {
+            double lon = randomLon();
+            double lat = randomLat();
+            List<Integer> expected = byDistance(lon, lat).subList(0, 10);
+            int[] actual = tree.nearest(lon, lat, 10);
+            assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), actual);
+        }
+    }
+
+    @Test
+    public void testRange() {
+        for (int q = 0; q < NUM_QUERIES; q++) {
+            double lon1 = randomLon();
+            double lon2 = randomLon();
+            double lat1 = randomLat();
+            double lat2 = randomLat();
+            double ullon = Math.min(lon1, lon2);
+            double lrlon = Math.max(lon1, lon2);
+            double ullat = Math.max(lat1, lat2);
+            double lrlat = Math.min(lat1, lat2);
+
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < NUM_POINTS; i++) {
+                if (lons[i] >= ullon && lons[i] <= lrlon && lats[i] <= ullat && lats[i] >= lrlat) {
+                    expected.add(i);
+                }
+            }
+            List<Integer> actual = tree.range(ullon, ullat, lrlon, lrlat);
+            Collections.sort(actual);
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testClosestMatchesScan() {
+        GraphDB g = new GraphDB(OSM_DB_PATH);
+        for (int q = 0; q < NUM_CLOSEST_QUERIES; q++) {
+            double lon = randomLon();
+            double lat = randomLat();
+            assertEquals("closest to " + lon + ", " + lat, g.closestByScan(lon, lat),
+                    g.closest(lon, lat));
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        KdTree empty = new KdTree(new double[0], new double[0]);
+        assertEquals(-1, empty.nearest(0, 0));
+        assertEquals(0, empty.nearest(0, 0, 3).length);
+    }
+}
@@ -0,0 +1,58 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks prefix completion and exact lookup in LocationIndex.
+ */
+public class TestLocationIndex {
+    private LocationIndex index;
+
+    @Before
+    public void setUp() {
+        long[] ids = {10, 11, 12, 13, 14, 15, 16};
+        double[] lons = {-122.0, -122.1, -122.2, -122.3, -122.4, -122.5, -122.6};
+        double[] lats = {37.0, 37.1, 37.2, 37.3, 37.4, 37.5, 37.6};
+        String[] names = {"Top Dog", "Top Dog", "Topaz Cafe", null, "top-dog", "Berkeley Bowl",
+            "Tops"};
+        index = new LocationIndex(ids, lons, lats, names);
+    }
+
+    @Test
+    public void testSize() {
+        assertEquals(5, index.size());
+    }
+
+    @Test
+    public void testComplete() {
+        /* "Top Dog" names two vertices, so it comes first; then the shorter names. */
+        assertEquals(Arrays.asList("Top Dog", "Tops", "top-dog", "Topaz Cafe"),
+                index.complete("to", 10));
+        assertEquals(Arrays.asList("Top Dog", "Tops"), index.complete("TO", 2));
+        assertEquals(Arrays.asList("Top Dog"), index.complete("top d", 10));
+        assertEquals(Arrays.asList("top-dog"), index.complete("topd", 10));
+        assertEquals(Arrays.asList("Top Dog"), index.complete("", 1));
+        assertEquals(Arrays.asList("Berkeley Bowl"), index.complete("b", 10));
+        assertTrue(index.complete("zzz", 10).isEmpty());
+        assertTrue(index.complete("to", 0).isEmpty());
+    }
+
+    @Test
+    public void testLookup() {
+        List<Map<String, Object>> found = index.lookup("TOP DOG!");
+        assertEquals(2, found.size());
+        assertEquals("Top Dog", found.get(0).get("name"));
+        assertEquals(10L, found.get(0).get("id"));
+        assertEquals(37.0, found.get(0).get("lat"));
+        assertEquals(-122.0, found.get(0).get("lon"));
+        assertEquals(11L, found.get(1).get("id"));
+        assertEquals(14L, index.lookup("topdog").get(0).get("id"));
+        assertTrue(index.lookup("top").isEmpty());
+    }
+}
@@ -0,0 +1,157 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how /tiles requests name tiles and answer with 404 and 304, and the tile URLs of
+ * /raster responses with grid_only, on a server with two small regions side by side: west
+ * and east of longitude 0, each with tiles down to depth 1 and an empty graph.
+ */
+public class TestMapServer {
+    private static final String[] TILES = {"d0_x0_y0.png", "d1_x0_y0.png", "d1_x1_y0.png",
+        "d1_x0_y1.png", "d1_x1_y1.png"};
+
+    private File westTiles;
+    private File eastTiles;
+    private OsmFixture osm;
+    private Region west;
+    private Region east;
+
+    @Before
+    public void setUp() throws Exception {
+        westTiles = tiles();
+        eastTiles = tiles();
+        osm = new OsmFixture("server", OsmFixture.EMPTY);
+        west = new Region("west", -1, 1, 0, 0, 0, 1, westTiles.getPath(), osm.path());
+        east = new Region("east", 0, 1, 1, 0, 0, 1, eastTiles.getPath(), osm.path());
+        MapServer.initialize(Arrays.asList(west, east));
+    }
+
+    /** Creates a folder holding every tile of TILES. */
+    private static File tiles() throws Exception {
+        File root = Files.createTempDirectory("tiles").toFile();
+        for (String name : TILES) {
+            BufferedImage img = new BufferedImage(MapServer.TILE_SIZE, MapServer.TILE_SIZE,
+                    BufferedImage.TYPE_INT_RGB);
+            ImageIO.write(img, "png", new File(root, name));
+        }
+        return root;
+    }
+
+    @After
+    public void tearDown() {
+        for (File root : new File[]{westTiles, eastTiles}) {
+            for (File f : root.listFiles()) {
+                f.delete();
+            }
+            root.delete();
+        }
+        osm.close();
+    }
+
+    @Test
+    public void testTileFile() {
+        assertEquals(new File(westTiles, "d1_x1_y0.png"),
+                MapServer.tileFile(west, "1", "1", "0.png"));
+        assertEquals(new File(eastTiles, "d0_x0_y0.png"),
+                MapServer.tileFile(east, "0", "0", "0.png"));
+        /* The row must end in .png, and every coordinate must be a number. */
+        assertNull(MapServer.tileFile(west, "1", "1", "0"));
+        assertNull(MapServer.tileFile(west, "1", "1", "0.jpg"));
+        assertNull(MapServer.tileFile(west, "one", "1", "0.png"));
+        assertNull(MapServer.tileFile(west, "1", "1.5", "0.png"));
+        assertNull(MapServer.tileFile(west, "1", "1", "y.png"));
+        assertNull(MapServer.tileFile(west, "1", "1", ".png"));
+    }
+
+    @Test
+    public void testMissingTiles() {
+        String[][] outOfRange = {{"2", "0", "0.png"}, {"-1", "0", "0.png"},
+            {"1", "2", "0.png"}, {"1", "0", "2.png"}, {"1", "-1", "0.png"},
+            {"1", "0", "-1.png"}, {"31", "0", "0.png"}};
+        for (String[] p : outOfRange) {
+            File tile = MapServer.tileFile(west, p[0], p[1], p[2]);
+            assertNull(Arrays.toString(p), tile);
+            assertEquals(404, MapServer.tileStatus(tile, null));
+        }
+        /* In range, but not in the tile folder. */
+        assertTrue(new File(westTiles, "d1_x1_y1.png").delete());
+        assertEquals(404, MapServer.tileStatus(MapServer.tileFile(west, "1", "1", "1.png"),
+                null));
+    }
+
+    @Test
+    public void testNotModified() {
+        File tile = MapServer.tileFile(west, "1", "0", "1.png");
+        String etag = MapServer.etag(tile);
+        assertEquals(200, MapServer.tileStatus(tile, null));
+        assertEquals(304, MapServer.tileStatus(tile, etag));
+        assertEquals(200, MapServer.tileStatus(tile, "\"0-0\""));
+        /* Editing the tile changes its ETag, so clients fetch it again. */
+        assertTrue(tile.setLastModified(tile.lastModified() + 10000));
+        assertNotEquals(etag, MapServer.etag(tile));
+        assertEquals(200, MapServer.tileStatus(tile, etag));
+    }
+
+    /** Returns the /raster grid_only response for the whole root tile of a region. */
+    private static JsonObject grid(Region region, Region requested) {
+        Map<String, Double> params = new HashMap<>();
+        params.put("ullon", region.ulLon);
+        params.put("ullat", region.ulLat);
+        params.put("lrlon", region.lrLon);
+        params.put("lrlat", region.lrLat);
+        params.put("w", 2.0 * MapServer.TILE_SIZE);
+        params.put("h", 2.0 * MapServer.TILE_SIZE);
+        return new Gson().fromJson(MapServer.rasterGrid(requested, params), JsonObject.class);
+    }
+
+    /** Checks that each tile URL of a grid names the tile of render_grid at its place. */
+    private static void checkTileUrls(JsonObject grid, String query) {
+        assertTrue(grid.get("query_success").getAsBoolean());
+        assertNull(grid.get("b64_encoded_image_data"));
+        JsonArray renderGrid = grid.getAsJsonArray("render_grid");
+        JsonArray tileUrls = grid.getAsJsonArray("tile_urls");
+        assertEquals(renderGrid.size(), tileUrls.size());
+        int tiles = 0;
+        for (int r = 0; r < renderGrid.size(); r++) {
+            JsonArray names = renderGrid.get(r).getAsJsonArray();
+            JsonArray urls = tileUrls.get(r).getAsJsonArray();
+            assertEquals(names.size(), urls.size());
+            for (int c = 0; c < names.size(); c++) {
+                String name = names.get(c).getAsString();
+                String[] dxy = name.substring(1, name.length() - ".png".length()).split("_[xy]");
+                assertEquals("/tiles/" + String.join("/", dxy) + ".png" + query,
+                        urls.get(c).getAsString());
+                tiles++;
+            }
+        }
+        assertEquals(4, tiles);
+    }
+
+    @Test
+    public void testGridOnly() {
+        /* Tiles of the first region need no region parameter. */
+        checkTileUrls(grid(west, null), "");
+        checkTileUrls(grid(west, west), "");
+        checkTileUrls(grid(east, null), "?region=east");
+        checkTileUrls(grid(east, east), "?region=east");
+        assertEquals(2 * MapServer.TILE_SIZE, grid(east, null).get("raster_width").getAsInt());
+    }
+}
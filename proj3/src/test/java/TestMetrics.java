@@ -0,0 +1,65 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that Metrics counts values into the right buckets and renders them in the
+ * Prometheus text format.
+ */
+public class TestMetrics {
+    private Metrics metrics;
+    private Metrics.Histogram sizes;
+
+    @Before
+    public void setUp() {
+        metrics = new Metrics();
+        sizes = metrics.histogram("test_sizes", "Sizes.", "kind=\"a\"",
+                new Metrics.Histogram(new long[]{10, 100}, 1));
+    }
+
+    @Test
+    public void testHistogram() {
+        for (long v : new long[]{0, 10, 11, 100, 101, 5000}) {
+            sizes.record(v);
+        }
+        assertEquals(6, sizes.getCount());
+        assertEquals(5222, sizes.getSum(), 0);
+        assertEquals(5222 / 6.0, sizes.getMean(), 1e-9);
+        String text = metrics.scrape();
+        assertTrue(text.startsWith("# HELP test_sizes Sizes.\n# TYPE test_sizes histogram\n"));
+        assertTrue(text.contains("test_sizes_bucket{kind=\"a\",le=\"10\"} 2\n"));
+        assertTrue(text.contains("test_sizes_bucket{kind=\"a\",le=\"100\"} 4\n"));
+        assertTrue(text.contains("test_sizes_bucket{kind=\"a\",le=\"+Inf\"} 6\n"));
+        assertTrue(text.contains("test_sizes_sum{kind=\"a\"} 5222\n"));
+        assertTrue(text.contains("test_sizes_count{kind=\"a\"} 6\n"));
+    }
+
+    @Test
+    public void testLatency() {
+        Metrics.Histogram latency = metrics.latency("test_seconds", "Times.", "");
+        latency.record(1_500_000);
+        String text = metrics.scrape();
+        assertTrue(text.contains("test_seconds_bucket{le=\"0.001\"} 0\n"));
+        assertTrue(text.contains("test_seconds_bucket{le=\"0.0025\"} 1\n"));
+        assertTrue(text.contains("test_seconds_sum 0.0015\n"));
+        assertTrue(text.contains("test_seconds_count 1\n"));
+    }
+
+    @Test
+    public void testFamilies() {
+        metrics.histogram("test_sizes", "Sizes.", "kind=\"b\"",
+                new Metrics.Histogram(new long[]{10}, 1));
+        AtomicLong hits = new AtomicLong(3);
+        metrics.counter("test_hits_total", "Hits.", hits::get);
+        hits.incrementAndGet();
+        String text = metrics.scrape();
+        assertEquals(text.indexOf("# TYPE test_sizes"), text.lastIndexOf("# TYPE test_sizes"));
+        assertTrue(text.contains("test_sizes_count{kind=\"b\"} 0\n"));
+        assertTrue(text.endsWith("# HELP test_hits_total Hits.\n"
+                + "# TYPE test_hits_total counter\ntest_hits_total 4\n"));
+    }
+}
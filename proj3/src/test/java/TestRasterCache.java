@@ -0,0 +1,59 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks the keys, LRU eviction and counters of RasterCache.
+ */
+public class TestRasterCache {
+    private RasterCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new RasterCache(100);
+    }
+
+    @Test
+    public void testKey() {
+        String[][] grid = {{"d2_x1_y0.png", "d2_x2_y0.png"}, {"d2_x1_y1.png", "d2_x2_y1.png"}};
+        String[][] sameCorners = {{"d2_x1_y0.png", "?"}, {"?", "d2_x2_y1.png"}};
+        String[][] deeper = {{"d3_x1_y0.png", "d3_x2_y0.png"}, {"d3_x1_y1.png", "d3_x2_y1.png"}};
+        String key = RasterCache.key("berkeley", grid, 4);
+        assertEquals(key, RasterCache.key("berkeley", sameCorners, 4));
+        assertNotEquals(key, RasterCache.key("berkeley", grid, 5));
+        assertNotEquals(key, RasterCache.key("berkeley", deeper, 4));
+        assertNotEquals(key, RasterCache.key("oakland", grid, 4));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        byte[] a = new byte[40];
+        byte[] b = new byte[40];
+        byte[] c = new byte[40];
+        cache.put("a", a);
+        cache.put("b", b);
+        assertSame(a, cache.get("a"));
+        cache.put("c", c);
+        assertNull(cache.get("b"));
+        assertSame(a, cache.get("a"));
+        assertSame(c, cache.get("c"));
+        assertEquals(80, cache.bytes());
+        assertEquals(3, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    public void testOversizedAndClear() {
+        cache.put("big", new byte[101]);
+        assertNull(cache.get("big"));
+        cache.put("a", new byte[10]);
+        cache.clear();
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.bytes());
+    }
+}
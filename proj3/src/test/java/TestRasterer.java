@@ -47,6 +47,48 @@ public class TestRasterer {
         }
     }
 
+    @Test
+    public void testTypedRaster() throws Exception {
+        List<Map<String, Double>> testParams = paramsFromFile();
+        List<Map<String, Object>> expectedResults = resultsFromFile();
+
+        for (int i = 0; i < NUM_TESTS; i++) {
+            Map<String, Double> p = testParams.get(i);
+            Rasterer.Raster raster = rasterer.raster(p.get("ullon"), p.get("ullat"),
+                    p.get("lrlon"), p.get("lrlat"), p.get("w"), p.get("h"));
+            checkParamsMap("Rasterer.raster did not match getMapRaster for input "
+                    + mapToString(p) + ".\n", expectedResults.get(i), raster.toMap());
+            /* Tile names come from one table, so repeated queries share them. */
+            Rasterer.Raster again = rasterer.raster(p.get("ullon"), p.get("ullat"),
+                    p.get("lrlon"), p.get("lrlat"), p.get("w"), p.get("h"));
+            assertTrue(raster.renderGrid[0][0] == again.renderGrid[0][0]);
+            assertEquals(raster.renderGrid[0].length * Rasterer.TILE_SIZE, raster.width());
+        }
+        assertTrue(rasterer.raster(-123, 38, -122.9, 37.9, 256, 256) == Rasterer.Raster.FAILED);
+    }
+
+    @Test
+    public void testRegion() {
+        Region region = new Region("square", 0, 1, 1, 0, 2, 10, "tiles", "map.osm.xml");
+        Rasterer square = new Rasterer(region);
+        /* Zoomed out, the shallowest depth of the region is used. */
+        Rasterer.Raster all = square.raster(0, 1, 1, 0, 256, 256);
+        assertEquals(2, all.depth);
+        assertTrue(all.region == region);
+        assertArrayEquals(new String[]{"d2_x0_y3.png", "d2_x1_y3.png", "d2_x2_y3.png",
+            "d2_x3_y3.png"}, all.renderGrid[3]);
+        Rasterer.Raster corner = square.raster(0, 1, 0.3, 0.7, 256, 256);
+        assertEquals(2, corner.depth);
+        assertEquals(0.5, corner.lrLon, DOUBLE_THRESHOLD);
+        assertEquals(0.5, corner.lrLat, DOUBLE_THRESHOLD);
+        /* Zoomed in past the region's deepest tiles, whose names are not in a table. */
+        Rasterer.Raster deep = square.raster(0.5, 0.5, 0.5005, 0.4995, 512, 512);
+        assertEquals(10, deep.depth);
+        assertEquals("d10_x512_y512.png", deep.renderGrid[0][0]);
+        assertEquals(512, deep.firstX);
+        assertTrue(square.raster(1, 1, 2, 0, 256, 256) == Rasterer.Raster.FAILED);
+    }
+
     private List<Map<String, Double>> paramsFromFile() throws Exception {
         List<String> lines = Files.readAllLines(Paths.get(PARAMS_FILE), Charset.defaultCharset());
         List<Map<String, Double>> testParams = new ArrayList<>();
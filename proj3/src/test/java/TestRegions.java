@@ -0,0 +1,159 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that regions are read from a regions file, that requests are matched to the right
+ * region, and that a region's graph and tiles are each loaded once, when first asked for,
+ * and again on the next request if loading fails.
+ */
+public class TestRegions {
+    /* Two regions side by side, west and east of longitude 0. */
+    private static final String REGIONS_JSON = "[{\"name\": \"west\", \"ullon\": -1, \"ullat\": 1,"
+            + " \"lrlon\": 0, \"lrlat\": 0, \"max_depth\": 3, \"tiles\": \"west-tiles\","
+            + " \"osm\": \"west.osm.xml\"},"
+            + " {\"name\": \"east\", \"ullon\": 0, \"ullat\": 1, \"lrlon\": 1, \"lrlat\": 0,"
+            + " \"min_depth\": 1, \"max_depth\": 5, \"tiles\": \"east-tiles/\","
+            + " \"osm\": \"east.osm.xml\"}]";
+
+    private File file;
+    private List<Region> loaded;
+    private Regions regions;
+    private AtomicInteger graphLoads;
+    private AtomicInteger tileLoads;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("regions", ".json");
+        Files.write(file.toPath(), REGIONS_JSON.getBytes(StandardCharsets.UTF_8));
+        loaded = Region.load(file.getPath());
+        graphLoads = new AtomicInteger();
+        tileLoads = new AtomicInteger();
+        regions = new Regions(loaded, r -> {
+            graphLoads.incrementAndGet();
+            return new Regions.Graph(null, null, null);
+        }, r -> {
+            tileLoads.incrementAndGet();
+            return new Regions.Tiles(new Rasterer(r), null);
+        });
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testLoad() {
+        assertEquals(2, loaded.size());
+        Region west = loaded.get(0);
+        assertEquals("west", west.name);
+        assertEquals(-1, west.ulLon, 0);
+        assertEquals(0, west.minDepth);
+        assertEquals(3, west.maxDepth);
+        assertEquals("west-tiles" + File.separator, west.tileRoot);
+        assertEquals("west.osm.xml", west.osmPath);
+        Region east = loaded.get(1);
+        assertEquals(1, east.minDepth);
+        assertEquals("east-tiles/", east.tileRoot);
+    }
+
+    @Test
+    public void testInvalidRegions() throws Exception {
+        for (String json : new String[]{"[]", "[{\"name\": \"a\", \"ullon\": 1, \"ullat\": 1,"
+                + " \"lrlon\": 0, \"lrlat\": 0, \"tiles\": \"t\", \"osm\": \"o\"}]",
+                "[" + REGIONS_JSON.substring(1, REGIONS_JSON.indexOf('}') + 1) + ","
+                + REGIONS_JSON.substring(1)}) {
+            Files.write(file.toPath(), json.getBytes(StandardCharsets.UTF_8));
+            try {
+                Region.load(file.getPath());
+                fail("Loaded invalid regions " + json);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+        }
+    }
+
+    @Test
+    public void testLookup() {
+        Region west = loaded.get(0);
+        Region east = loaded.get(1);
+        assertSame(west, regions.first());
+        assertSame(east, regions.get("east"));
+        assertNull(regions.get("north"));
+        assertSame(west, regions.at(-0.5, 0.5));
+        assertSame(east, regions.at(0.5, 0.5));
+        /* Outside both, the nearest region is used. */
+        assertSame(east, regions.at(3, 0.5));
+        assertSame(west, regions.covering(-0.75, 0.5, 0.25, 0.25));
+        assertSame(east, regions.covering(-0.25, 0.5, 0.75, 0.25));
+        assertSame(west, regions.covering(5, 5, 6, 4));
+    }
+
+    @Test
+    public void testLazyLoading() {
+        Region east = regions.get("east");
+        assertEquals(0, regions.loadedGraphs().size());
+        assertEquals(0, regions.loadedTiles().size());
+        Regions.Tiles tiles = regions.tiles(east);
+        assertSame(tiles, regions.tiles(east));
+        assertSame(east, tiles.rasterer.region());
+        assertEquals(1, tileLoads.get());
+        assertEquals(0, graphLoads.get());
+        regions.graph(east);
+        regions.graph(east);
+        assertEquals(1, graphLoads.get());
+        assertEquals(Arrays.asList(tiles), regions.loadedTiles());
+        try {
+            regions.graph(Region.BERKELEY);
+            fail("Loaded a region that is not served");
+        } catch (IllegalArgumentException e) {
+            assertEquals(1, graphLoads.get());
+        }
+    }
+
+    @Test
+    public void testFailedLoadIsRetried() throws Exception {
+        try (OsmFixture osm = new OsmFixture("broken", "<osm><node")) {
+            Region broken = new Region("broken", -1, 1, 0, 0, 0, 3, "tiles", osm.path());
+            AtomicInteger attempts = new AtomicInteger();
+            /* Fails the way MapServer's loader does when the OSM file cannot be parsed. */
+            Regions brokenRegions = new Regions(Arrays.asList(broken), r -> {
+                attempts.incrementAndGet();
+                GraphDB g = new GraphDB(r.osmPath);
+                if (!g.loaded()) {
+                    throw new IllegalStateException("Cannot load " + r);
+                }
+                return new Regions.Graph(g, null, null);
+            }, r -> null);
+            for (int i = 1; i <= 2; i++) {
+                try {
+                    brokenRegions.graph(broken);
+                    fail("Loaded the graph of a broken OSM file");
+                } catch (IllegalStateException e) {
+                    assertEquals(i, attempts.get());
+                    assertTrue(brokenRegions.loadedGraphs().isEmpty());
+                }
+            }
+            /* Once the file is fixed, the next request loads it and keeps it. */
+            osm.write(OsmFixture.EMPTY);
+            Regions.Graph graph = brokenRegions.graph(broken);
+            assertSame(graph, brokenRegions.graph(broken));
+            assertEquals(3, attempts.get());
+            assertEquals(Arrays.asList(graph), brokenRegions.loadedGraphs());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that Router.distanceMatrix agrees with the lengths of the paths shortestPath
+ * returns between the start and end points in path_params.txt.
+ */
+public class TestRouteMatrix {
+    private static final String PARAMS_FILE = "path_params.txt";
+    private static final int NUM_TESTS = 8;
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private static final double DELTA = 1e-9;
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testMatchesShortestPaths() throws Exception {
+        List<String> params = Files.readAllLines(Paths.get(PARAMS_FILE), Charset.defaultCharset());
+        double[][] sources = new double[NUM_TESTS][];
+        double[][] targets = new double[NUM_TESTS][];
+        for (int i = 0; i < NUM_TESTS; i++) {
+            int lineIdx = 2 + 4 * i;
+            sources[i] = new double[]{Double.parseDouble(params.get(lineIdx)),
+                Double.parseDouble(params.get(lineIdx + 1))};
+            targets[i] = new double[]{Double.parseDouble(params.get(lineIdx + 2)),
+                Double.parseDouble(params.get(lineIdx + 3))};
+        }
+
+        double[][] distances = Router.distanceMatrix(graph, sources, targets);
+        assertEquals(NUM_TESTS, distances.length);
+        for (int i = 0; i < NUM_TESTS; i++) {
+            assertEquals(NUM_TESTS, distances[i].length);
+            for (int j = 0; j < NUM_TESTS; j++) {
+                List<Long> path = Router.shortestPath(graph, sources[i][0], sources[i][1],
+                        targets[j][0], targets[j][1]);
+                double expected = path.isEmpty() ? Double.POSITIVE_INFINITY : 0;
+                for (int k = 1; k < path.size(); k++) {
+                    expected += graph.edgeLength(graph.index(path.get(k - 1)),
+                            graph.index(path.get(k)));
+                }
+                assertEquals("distance from source " + i + " to target " + j,
+                        expected, distances[i][j], DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void testDuplicateAndMissingPoints() {
+        double[][] points = {{-122.25, 37.86}, {-122.25, 37.86}};
+        double[][] distances = Router.distanceMatrix(graph, points, points);
+        assertEquals(0.0, distances[0][0], 0.0);
+        assertEquals(0.0, distances[1][1], 0.0);
+        assertEquals(distances[0][1], distances[1][0], DELTA);
+        assertEquals(0, Router.distanceMatrix(graph, points, new double[0][])[0].length);
+        assertEquals(0, Router.distanceMatrix(graph, new double[0][], points).length);
+    }
+
+    @Test
+    public void testEmptyGraph() throws Exception {
+        double[][] points = {{-122.26, 37.87}, {-122.25, 37.86}};
+        double[][] distances = Router.distanceMatrix(OsmFixture.emptyGraph(), points, points);
+        assertEquals(2, distances.length);
+        for (double[] row : distances) {
+            assertEquals(2, row.length);
+            for (double d : row) {
+                assertEquals(Double.POSITIVE_INFINITY, d, 0.0);
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks the tokens, LRU eviction and expiry of RouteStore. The routes have fewer than two
+ * vertices, so that no graph is needed to build their overlays.
+ */
+public class TestRouteStore {
+    private RouteStore store;
+
+    @Before
+    public void setUp() {
+        store = new RouteStore(2, 3600);
+    }
+
+    @Test
+    public void testAddAndGet() {
+        RouteStore.Route a = store.add(null, Collections.singletonList(7L));
+        RouteStore.Route b = store.add(null, Collections.singletonList(8L));
+        assertNotEquals(a.token, b.token);
+        assertNotEquals(a.id, b.id);
+        assertNotEquals(RouteStore.Route.EMPTY.id, a.id);
+        assertSame(a, store.get(a.token));
+        assertSame(b, store.get(b.token));
+        assertEquals(Arrays.asList(7L), store.get(a.token).path);
+    }
+
+    @Test
+    public void testUnknownTokens() {
+        assertSame(RouteStore.Route.EMPTY, store.get(null));
+        assertSame(RouteStore.Route.EMPTY, store.get("nope"));
+        assertEquals(0, RouteStore.Route.EMPTY.path.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        RouteStore.Route a = store.add(null, Collections.singletonList(1L));
+        RouteStore.Route b = store.add(null, Collections.singletonList(2L));
+        store.get(a.token);
+        RouteStore.Route c = store.add(null, Collections.singletonList(3L));
+        assertEquals(2, store.size());
+        assertSame(RouteStore.Route.EMPTY, store.get(b.token));
+        assertSame(a, store.get(a.token));
+        assertSame(c, store.get(c.token));
+    }
+
+    @Test
+    public void testRemove() {
+        RouteStore.Route a = store.add(null, Collections.singletonList(1L));
+        store.remove(a.token);
+        store.remove(null);
+        assertSame(RouteStore.Route.EMPTY, store.get(a.token));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testExpiredRoutesAreDropped() throws InterruptedException {
+        store = new RouteStore(10, 0);
+        RouteStore.Route a = store.add(null, Collections.singletonList(1L));
+        Thread.sleep(2);
+        assertSame(RouteStore.Route.EMPTY, store.get(a.token));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testExpiredRouteAfterLiveOne() throws InterruptedException {
+        store = new RouteStore(2, 1);
+        RouteStore.Route a = store.add(null, Collections.singletonList(1L));
+        Thread.sleep(600);
+        RouteStore.Route b = store.add(null, Collections.singletonList(2L));
+        Thread.sleep(600);
+        /* a has expired but b, behind it, has not. */
+        assertSame(RouteStore.Route.EMPTY, store.get(a.token));
+        assertEquals(1, store.size());
+        /* The expired route is gone, so adding another does not push out the live one. */
+        RouteStore.Route c = store.add(null, Collections.singletonList(3L));
+        assertSame(b, store.get(b.token));
+        assertSame(c, store.get(c.token));
+    }
+}
@@ -0,0 +1,78 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that every Router.Strategy returns the same paths as the expected results in
+ * path_results.txt, so that the faster strategies can be used in place of plain A*.
+ */
+public class TestRouterStrategies {
+    private static final String PARAMS_FILE = "path_params.txt";
+    private static final String RESULTS_FILE = "path_results.txt";
+    private static final int NUM_TESTS = 8;
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testShortestPathAllStrategies() throws Exception {
+        List<String> params = Files.readAllLines(Paths.get(PARAMS_FILE), Charset.defaultCharset());
+        List<List<Long>> expectedResults = resultsFromFile();
+
+        for (Router.Strategy strategy : Router.Strategy.values()) {
+            for (int i = 0; i < NUM_TESTS; i++) {
+                int lineIdx = 2 + 4 * i;
+                List<Long> actual = Router.shortestPath(graph,
+                        Double.parseDouble(params.get(lineIdx)),
+                        Double.parseDouble(params.get(lineIdx + 1)),
+                        Double.parseDouble(params.get(lineIdx + 2)),
+                        Double.parseDouble(params.get(lineIdx + 3)), strategy);
+                assertEquals(strategy + " did not match the expected results for test " + i,
+                        expectedResults.get(i), actual);
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyGraph() throws Exception {
+        GraphDB empty = OsmFixture.emptyGraph();
+        for (Router.Strategy strategy : Router.Strategy.values()) {
+            assertTrue(strategy + " found a path in an empty graph", Router.shortestPath(
+                    empty, -122.26, 37.87, -122.25, 37.86, strategy).isEmpty());
+        }
+    }
+
+    private List<List<Long>> resultsFromFile() throws Exception {
+        List<String> lines = Files.readAllLines(Paths.get(RESULTS_FILE), Charset.defaultCharset());
+        List<List<Long>> expected = new ArrayList<>();
+        int lineIdx = 2; // ignore comment lines
+        for (int i = 0; i < NUM_TESTS; i++) {
+            int numVertices = Integer.parseInt(lines.get(lineIdx));
+            lineIdx++;
+            List<Long> path = new ArrayList<>();
+            for (int j = 0; j < numVertices; j++) {
+                path.add(Long.parseLong(lines.get(lineIdx)));
+                lineIdx++;
+            }
+            expected.add(path);
+        }
+        return expected;
+    }
+}
@@ -0,0 +1,96 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks the LRU eviction and counters of TileCache on a few generated tiles.
+ */
+public class TestTileCache {
+    private File root;
+    private long tileBytes;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("tiles").toFile();
+        String[] names = {"d0_x0_y0.png", "d1_x0_y0.png", "d1_x1_y0.png", "d1_x0_y1.png"};
+        for (int i = 0; i < names.length; i++) {
+            BufferedImage img = new BufferedImage(MapServer.TILE_SIZE, MapServer.TILE_SIZE,
+                    BufferedImage.TYPE_INT_RGB);
+            img.setRGB(0, 0, i);
+            ImageIO.write(img, "png", new File(root, names[i]));
+        }
+        TileCache probe = new TileCache(root.getPath() + File.separator, Long.MAX_VALUE);
+        probe.get(names[0]);
+        tileBytes = probe.bytes();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : root.listFiles()) {
+            f.delete();
+        }
+        root.delete();
+    }
+
+    private TileCache cache(int numTiles) {
+        return new TileCache(root.getPath() + File.separator, numTiles * tileBytes);
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        TileCache cache = cache(4);
+        BufferedImage first = cache.get("d0_x0_y0.png");
+        assertNotNull(first);
+        assertSame(first, cache.get("d0_x0_y0.png"));
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+        assertEquals(tileBytes, cache.bytes());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        TileCache cache = cache(2);
+        BufferedImage a = cache.get("d1_x0_y0.png");
+        cache.get("d1_x1_y0.png");
+        cache.get("d1_x0_y0.png");
+        cache.get("d1_x0_y1.png");
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictions());
+        assertSame(a, cache.get("d1_x0_y0.png"));
+        assertEquals(3, cache.misses());
+        cache.get("d1_x1_y0.png");
+        assertEquals(4, cache.misses());
+    }
+
+    @Test
+    public void testMissingTile() {
+        TileCache cache = cache(2);
+        assertNull(cache.get("d7_x0_y0.png"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testWarmUp() {
+        TileCache cache = cache(4);
+        cache.warmUp(1);
+        assertEquals(4, cache.size());
+        cache.get("d1_x1_y0.png");
+        assertEquals(1, cache.hits());
+        assertEquals(0, cache.misses());
+
+        TileCache small = cache(2);
+        small.warmUp(1);
+        assertEquals(2, small.size());
+        assertEquals(0, small.evictions());
+    }
+}
@@ -0,0 +1,92 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the maxspeed parsing and edge times of TravelTimes, and that Router minimizes
+ * travel time when asked to. The small hand-written graph has a short 10 mph street from
+ * vertex 1 to vertex 2, and a longer way round through vertex 3 on a primary road with no
+ * maxspeed, which is faster.
+ */
+public class TestTravelTimes {
+    private static final String OSM = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<osm version=\"0.6\">\n"
+            + "  <node id=\"1\" lat=\"37.870\" lon=\"-122.260\"/>\n"
+            + "  <node id=\"2\" lat=\"37.870\" lon=\"-122.250\"/>\n"
+            + "  <node id=\"3\" lat=\"37.875\" lon=\"-122.255\"/>\n"
+            + "  <way id=\"10\">\n"
+            + "    <nd ref=\"1\"/><nd ref=\"2\"/>\n"
+            + "    <tag k=\"highway\" v=\"residential\"/><tag k=\"maxspeed\" v=\"10 mph\"/>\n"
+            + "  </way>\n"
+            + "  <way id=\"11\">\n"
+            + "    <nd ref=\"1\"/><nd ref=\"3\"/><nd ref=\"2\"/>\n"
+            + "    <tag k=\"highway\" v=\"primary\"/>\n"
+            + "  </way>\n"
+            + "</osm>\n";
+    private static final double DELTA = 1e-6;
+
+    private OsmFixture osm;
+    private GraphDB g;
+
+    @Before
+    public void setUp() throws Exception {
+        osm = new OsmFixture("speeds", OSM);
+        g = osm.graph();
+    }
+
+    @After
+    public void tearDown() {
+        osm.close();
+    }
+
+    @Test
+    public void testParseMaxspeed() {
+        assertEquals(25, TravelTimes.parseMaxspeed("25 mph"), DELTA);
+        assertEquals(25, TravelTimes.parseMaxspeed("25mph"), DELTA);
+        assertEquals(50 / 1.609344, TravelTimes.parseMaxspeed("50"), DELTA);
+        assertEquals(40 / 1.609344, TravelTimes.parseMaxspeed("40 km/h"), DELTA);
+        assertEquals(30 / 1.609344, TravelTimes.parseMaxspeed("30;40"), DELTA);
+        assertEquals(10 * 1.852 / 1.609344, TravelTimes.parseMaxspeed("10 knots"), DELTA);
+        assertEquals(0, TravelTimes.parseMaxspeed("none"), 0);
+        assertEquals(0, TravelTimes.parseMaxspeed("signals"), 0);
+        assertEquals(0, TravelTimes.parseMaxspeed(null), 0);
+    }
+
+    @Test
+    public void testEdgeTimes() {
+        assertEquals(10, TravelTimes.speedOf(g.ways.get(10L)), 0);
+        assertEquals(40, TravelTimes.speedOf(g.ways.get(11L)), 0);
+        assertEquals(40, g.maxSpeed, 0);
+        int v1 = g.index(1);
+        int v2 = g.index(2);
+        for (int e = g.offsets[v1]; e < g.offsets[v1 + 1]; e++) {
+            double mph = g.targets[e] == v2 ? 10 : 40;
+            assertEquals(g.edgeLengths[e] / mph * 3600, g.edgeTimes[e], 1e-3);
+            assertTrue(g.edgeTimes[e] >= g.edgeLengths[e] / mph * 3600);
+        }
+    }
+
+    @Test
+    public void testFastestPath() {
+        for (Router.Strategy strategy : new Router.Strategy[]{Router.Strategy.ASTAR,
+            Router.Strategy.BIDIRECTIONAL_ASTAR}) {
+            assertEquals(Arrays.asList(1L, 2L), Router.shortestPath(g, -122.260, 37.870,
+                    -122.250, 37.870, strategy, Router.Weight.DISTANCE));
+            assertEquals(Arrays.asList(1L, 3L, 2L), Router.shortestPath(g, -122.260, 37.870,
+                    -122.250, 37.870, strategy, Router.Weight.TRAVEL_TIME));
+            assertEquals(Arrays.asList(2L, 3L, 1L), Router.shortestPath(g, -122.250, 37.870,
+                    -122.260, 37.870, strategy, Router.Weight.TRAVEL_TIME));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedStrategy() {
+        Router.shortestPath(g, -122.260, 37.870, -122.250, 37.870,
+                Router.Strategy.CONTRACTION_HIERARCHY, Router.Weight.TRAVEL_TIME);
+    }
+}